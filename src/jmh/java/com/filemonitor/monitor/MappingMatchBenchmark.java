@@ -0,0 +1,84 @@
+package com.filemonitor.monitor;
+
+import com.filemonitor.config.MonitorConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同一源目录下多个映射时的文件名匹配开销：
+ * 合并后的单个正则（MappingGroup.accept）对比逐个映射匹配
+ * 文件名约四分之一能命中某个映射，其余不匹配任何映射
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingMatchBenchmark {
+    private static final int NAMES = 1024;
+
+    @Param({"1", "10", "100"})
+    private int patternCount;
+
+    private MappingGroup group;
+    private List<MonitorConfig.FileMapping> mappings;
+    private String[] names;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        mappings = new ArrayList<>(patternCount);
+        for (int i = 0; i < patternCount; i++) {
+            mappings.add(MonitorConfig.FileMapping.fromLine(
+                "report_" + i + "_\\d{8}\\.csv|/data/incoming|/remote/reports/" + i));
+        }
+        group = new MappingGroup("/data/incoming", mappings);
+        names = new String[NAMES];
+        for (int i = 0; i < NAMES; i++) {
+            int id = i % patternCount;
+            names[i] = i % 4 == 0
+                ? String.format("report_%d_%08d.csv", id, 20240000 + i)
+                : String.format("report_%d_%08d.tmp", id, 20240000 + i);
+        }
+    }
+
+    @Benchmark
+    public boolean combined() {
+        return group.accept(nextName());
+    }
+
+    @Benchmark
+    public boolean sequential() {
+        String name = nextName();
+        for (MonitorConfig.FileMapping mapping : mappings) {
+            if (mapping.matches(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    public List<MonitorConfig.FileMapping> matching() {
+        return group.matching(nextName());
+    }
+
+    private String nextName() {
+        next = (next + 1) & (NAMES - 1);
+        return names[next];
+    }
+}
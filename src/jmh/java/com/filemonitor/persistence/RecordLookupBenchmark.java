@@ -0,0 +1,113 @@
+package com.filemonitor.persistence;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.filemonitor.metrics.MetricsRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 已处理记录的查询耗时与记录总数的关系
+ * 快照中预置recordCount条合成记录，另登记若干真实文件：
+ * 命中走元数据比对（不计算哈希），未命中只查索引
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RecordLookupBenchmark {
+    private static final int REAL_FILES = 100;
+
+    @Param({"10000", "100000", "1000000"})
+    private int recordCount;
+
+    private Path directory;
+    private FileRecordService service;
+    private File[] processed;
+    private File[] unprocessed;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("record-benchmark");
+        File recordFile = directory.resolve("processed_files.json").toFile();
+        writeSnapshot(recordFile);
+
+        service = new FileRecordService(recordFile.getPath(), new MetricsRegistry());
+        processed = new File[REAL_FILES];
+        unprocessed = new File[REAL_FILES];
+        for (int i = 0; i < REAL_FILES; i++) {
+            processed[i] = createFile("processed-" + i + ".dat");
+            service.addProcessedFile(processed[i]);
+            unprocessed[i] = createFile("new-" + i + ".dat");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        service.shutdown();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public boolean hit() {
+        return service.isFileProcessed(processed[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean miss() {
+        return service.isFileProcessed(unprocessed[nextIndex()]);
+    }
+
+    private int nextIndex() {
+        next = (next + 1) % REAL_FILES;
+        return next;
+    }
+
+    private File createFile(String name) throws IOException {
+        File file = directory.resolve(name).toFile();
+        Files.write(file.toPath(), name.getBytes());
+        return file;
+    }
+
+    private void writeSnapshot(File recordFile) throws IOException {
+        long now = System.currentTimeMillis();
+        try (JsonGenerator generator = new JsonFactory().createGenerator(recordFile, JsonEncoding.UTF8)) {
+            generator.writeStartArray();
+            for (int i = 0; i < recordCount; i++) {
+                generator.writeStartObject();
+                generator.writeStringField("filePath", "/data/incoming/batch-" + (i / 1000) + "/file-" + i + ".dat");
+                generator.writeStringField("fileHash", String.format("%064x", i));
+                generator.writeNumberField("lastModified", now - i);
+                generator.writeNumberField("fileSize", 1024 + i % 4096);
+                generator.writeNumberField("processTime", now - recordCount + i);
+                generator.writeStringField("fileKey", Integer.toHexString(i));
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.filemonitor.persistence;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 已处理记录存储的正确性检查
+ * 以LinkedHashMap为参照模型，覆盖：探测链越过索引表末尾（回绕）时的写入、替换和删除，
+ * 过期清理与压缩后的查找和继续写入，共享目录前缀、互为前缀的文件名以及前缀在记录全部过期后的复用。
+ * 与参照模型不一致时以非零状态退出，构建失败。
+ *
+ * mvn -Pjmh test-compile exec:exec@store-check
+ */
+public class RecordStoreCheck {
+    private static final int INITIAL_TABLE = 1024;   // 与CompactRecordStore的初始索引表大小一致
+    private static final int PAGE_SIZE = 1 << 16;    // 与CompactRecordStore的每页记录数一致
+
+    private final CompactRecordStore store = new CompactRecordStore();
+    private final Map<String, FileRecordService.FileRecord> model = new LinkedHashMap<>();
+    private long clock = 1_000_000L;                 // 处理时间，秒为单位递增，与写入顺序一致
+
+    public static void main(String[] args) throws IOException {
+        wraparound();
+        expiryAndCompaction();
+        prefixReuse();
+        System.out.println("CompactRecordStore checks passed");
+    }
+
+    /**
+     * 挑选散列到索引表最后几个槽位的路径，探测链越过表尾回到开头；
+     * 替换和过期删除链中间的记录后，链上其余记录仍然能找到
+     */
+    private static void wraparound() throws IOException {
+        RecordStoreCheck check = new RecordStoreCheck();
+        List<String> tail = new ArrayList<>();
+        for (int i = 0; tail.size() < 12; i++) {
+            String path = "/data/wrap/f" + i;
+            if ((hash(path) & (INITIAL_TABLE - 1)) >= INITIAL_TABLE - 4) {
+                tail.add(path);
+            }
+        }
+        // 再放一些散列到表头的路径，与回绕过来的探测链交错
+        List<String> front = new ArrayList<>();
+        for (int i = 0; front.size() < 12; i++) {
+            String path = "/data/wrap/g" + i;
+            if ((hash(path) & (INITIAL_TABLE - 1)) < 4) {
+                front.add(path);
+            }
+        }
+        for (int i = 0; i < tail.size(); i++) {
+            check.put(tail.get(i), i);
+            check.put(front.get(i), i);
+        }
+        check.verify("wraparound insert");
+
+        // 链中间的记录被替换（旧记录从索引删除后重新追加）
+        for (int i = 0; i < tail.size(); i += 3) {
+            check.put(tail.get(i), 100 + i);
+            check.put(front.get(i + 1), 100 + i);
+        }
+        check.verify("wraparound replace");
+
+        // 最早写入的记录过期，删除点落在回绕后的链上
+        check.expireBefore(tail.size() / 2);
+        check.verify("wraparound expire");
+
+        for (String path : tail) {
+            check.put(path, 200);
+        }
+        check.verify("wraparound reinsert");
+    }
+
+    /**
+     * 大部分记录过期触发压缩，压缩后查找、遍历顺序以及继续写入（含替换）都正确
+     */
+    private static void expiryAndCompaction() throws IOException {
+        RecordStoreCheck check = new RecordStoreCheck();
+        int total = PAGE_SIZE * 3;
+        for (int i = 0; i < total; i++) {
+            check.put("/data/compact/dir-" + (i % 5) + "/file-" + i + ".dat", i);
+        }
+        // 写入期间同一路径替换，留下分散的失效记录
+        for (int i = 0; i < total; i += 7) {
+            check.put("/data/compact/dir-" + (i % 5) + "/file-" + i + ".dat", i + 1);
+        }
+        check.verify("before expiry");
+
+        int expired = check.expireBefore(total * 3 / 4);
+        if (expired == 0) {
+            fail("expected records to expire");
+        }
+        check.verify("after expiry and compaction");
+
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            check.put("/data/compact/dir-" + (i % 5) + "/file-" + (total + i) + ".dat", i);
+        }
+        for (int i = total - 100; i < total; i++) {
+            check.put("/data/compact/dir-" + (i % 5) + "/file-" + i + ".dat", i + 2);
+        }
+        check.verify("after compaction and new writes");
+
+        check.expireBefore(Integer.MAX_VALUE);
+        check.verify("all expired");
+    }
+
+    /**
+     * 同一目录的记录共用前缀，互为前缀的文件名和不同目录下的同名文件互不影响；
+     * 一个目录的记录全部过期后，前缀仍可被新记录复用
+     */
+    private static void prefixReuse() throws IOException {
+        RecordStoreCheck check = new RecordStoreCheck();
+        String[] names = {"a", "a.dat", "a.dat.1", "ab", "数据.dat", ""};
+        for (String dir : new String[] {"/data/p/", "/data/p/a/", "/data/q/"}) {
+            for (int i = 0; i < names.length; i++) {
+                check.put(dir + names[i], i);
+            }
+        }
+        check.verify("shared prefixes");
+
+        check.expireBefore(check.clock + 1);
+        check.verify("prefixes expired");
+
+        for (int i = 0; i < names.length; i++) {
+            check.put("/data/p/" + names[i], 10 + i);
+        }
+        check.verify("prefix reused");
+    }
+
+    private void put(String path, int version) {
+        FileRecordService.FileRecord record = new FileRecordService.FileRecord(path,
+            String.format("%064x", (long) path.hashCode() * 31 + version), 1_600_000_000_000L + version, version);
+        record.setProcessTime(++clock * 1000);
+        record.setFileKey(Integer.toHexString(version + 1));
+        store.put(record);
+        model.remove(path);
+        model.put(path, record);
+    }
+
+    /**
+     * 让最早写入的count条有效记录过期
+     */
+    private int expireBefore(long count) {
+        long cutoffSeconds = clock + 1;
+        int index = 0;
+        for (FileRecordService.FileRecord record : model.values()) {
+            if (index++ == count) {
+                cutoffSeconds = record.getProcessTime() / 1000;
+                break;
+            }
+        }
+        long cutoff = cutoffSeconds * 1000;
+        int removed = store.removeOlderThan(cutoff);
+        int expected = 0;
+        for (Iterator<FileRecordService.FileRecord> it = model.values().iterator(); it.hasNext(); ) {
+            if (it.next().getProcessTime() < cutoff) {
+                it.remove();
+                expected++;
+            }
+        }
+        if (removed != expected) {
+            fail("removeOlderThan removed " + removed + " records, expected " + expected);
+        }
+        return removed;
+    }
+
+    private void verify(String stage) throws IOException {
+        if (store.size() != model.size()) {
+            fail(stage + ": store holds " + store.size() + " records, expected " + model.size());
+        }
+        for (FileRecordService.FileRecord expected : model.values()) {
+            FileRecordService.FileRecord actual = store.get(expected.getFilePath());
+            if (actual == null) {
+                fail(stage + ": missing " + expected.getFilePath());
+            }
+            compare(stage, expected, actual);
+        }
+        List<FileRecordService.FileRecord> visited = new ArrayList<>();
+        store.forEach(visited::add);
+        List<FileRecordService.FileRecord> expected = new ArrayList<>(model.values());
+        if (visited.size() != expected.size()) {
+            fail(stage + ": forEach visited " + visited.size() + " records, expected " + expected.size());
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            compare(stage + " (forEach #" + i + ")", expected.get(i), visited.get(i));
+        }
+        if (store.get("/data/never-written/file") != null || store.get("/data/wrap/never-written") != null) {
+            fail(stage + ": found a record that was never written");
+        }
+    }
+
+    private static void compare(String stage, FileRecordService.FileRecord expected, FileRecordService.FileRecord actual) {
+        if (!expected.getFilePath().equals(actual.getFilePath())
+                || !expected.getFileHash().equals(actual.getFileHash())
+                || expected.getLastModified() != actual.getLastModified()
+                || expected.getFileSize() != actual.getFileSize()
+                || expected.getProcessTime() != actual.getProcessTime()
+                || !expected.getFileKey().equals(actual.getFileKey())) {
+            fail(stage + ": record for " + expected.getFilePath() + " differs: got " + actual.getFilePath() + " "
+                + actual.getFileHash() + " " + actual.getLastModified() + " " + actual.getFileSize() + " "
+                + actual.getProcessTime() + " " + actual.getFileKey());
+        }
+    }
+
+    /**
+     * 与CompactRecordStore的散列相同，用于挑选落在指定槽位的路径
+     */
+    private static int hash(String path) {
+        int h = path.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private static void fail(String message) {
+        System.err.println("FAILED: " + message);
+        System.exit(1);
+    }
+}
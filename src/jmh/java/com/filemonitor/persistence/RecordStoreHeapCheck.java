@@ -0,0 +1,73 @@
+package com.filemonitor.persistence;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * 已处理记录存储的堆占用检查
+ * 在与start.sh相同的堆大小下写入大量合成记录（默认500万条，文件名19字节），
+ * 超出堆（OutOfMemoryError）、每条记录的平均占用超过预算或记录占用超过堆的给定比例
+ * （其余留给上传、缓冲和GC）时以非零状态退出，构建失败。
+ *
+ * mvn -Pjmh test-compile exec:exec@heap-check
+ */
+public class RecordStoreHeapCheck {
+    private static final String HASH_PREFIX = "0000000000000000000000000000000000000000000000000000000";
+
+    public static void main(String[] args) {
+        int records = Integer.getInteger("heapcheck.records", 5_000_000);
+        int maxBytesPerRecord = Integer.getInteger("heapcheck.maxBytesPerRecord", 120);
+        int maxHeapPercent = Integer.getInteger("heapcheck.maxHeapPercent", 50);
+        long maxHeap = Runtime.getRuntime().maxMemory();
+
+        long before = usedHeap();
+        CompactRecordStore store = new CompactRecordStore();
+        long now = System.currentTimeMillis();
+        int i = 0;
+        try {
+            for (; i < records; i++) {
+                // 8个映射目录，文件名形如 file-0001234567.dat（19字节）
+                String path = "/data/incoming/mapping-" + (i & 7) + "/file-" + String.format("%010d", i) + ".dat";
+                FileRecordService.FileRecord record = new FileRecordService.FileRecord(path,
+                    HASH_PREFIX + String.format("%09x", i), now - i, 1024 + i % 4096);
+                record.setProcessTime(now - records + i);
+                record.setFileKey(Integer.toHexString(i));
+                store.put(record);
+            }
+        } catch (OutOfMemoryError e) {
+            store = null;
+            System.err.printf("FAILED: out of memory after %d of %d records with max heap %d MB%n",
+                i, records, maxHeap >> 20);
+            System.exit(1);
+        }
+        long used = usedHeap() - before;
+        long perRecord = used / Math.max(1, store.size());
+
+        System.out.printf("%d records, %d MB retained (%d%% of max heap %d MB), %d bytes/record, budget %d bytes/record%n",
+            store.size(), used >> 20, used * 100 / maxHeap, maxHeap >> 20, perRecord, maxBytesPerRecord);
+        if (store.size() != records) {
+            System.err.printf("FAILED: expected %d records but store holds %d%n", records, store.size());
+            System.exit(1);
+        }
+        if (perRecord > maxBytesPerRecord) {
+            System.err.printf("FAILED: %d bytes/record exceeds budget of %d%n", perRecord, maxBytesPerRecord);
+            System.exit(1);
+        }
+        if (used * 100 > maxHeap * maxHeapPercent) {
+            System.err.printf("FAILED: %d MB retained exceeds %d%% of max heap %d MB%n",
+                used >> 20, maxHeapPercent, maxHeap >> 20);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 多次GC后的已用堆，只剩可达对象
+     */
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
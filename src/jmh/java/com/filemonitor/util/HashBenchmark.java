@@ -0,0 +1,55 @@
+package com.filemonitor.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 整文件SHA-256（FileRecordService.calculateFileHash的实现）
+ * 文件在页缓存中，结果反映摘要计算和读取的CPU开销，不含磁盘IO
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+    @Param({"4096", "1048576", "67108864"})
+    private int fileSize;
+
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] data = new byte[fileSize];
+        new Random(42).nextBytes(data);
+        file = Files.createTempFile("hash-benchmark", ".bin").toFile();
+        Files.write(file.toPath(), data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public String hashFile() throws IOException {
+        return HashUtils.hashFile(file);
+    }
+}
@@ -0,0 +1,73 @@
+package com.filemonitor.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileStabilityChecker一轮检查的耗时与待检查文件数的关系
+ * 文件稳定后立即重新登记，保持待检查数量不变，稳定时的加锁检查也计入其中
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StabilityCheckBenchmark {
+    @Param({"100", "1000", "10000"})
+    private int pendingFiles;
+
+    private Path directory;
+    private List<File> files;
+    private FileStabilityChecker checker;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("stability-benchmark");
+        files = new ArrayList<>(pendingFiles);
+        checker = new FileStabilityChecker(false);
+        for (int i = 0; i < pendingFiles; i++) {
+            File file = directory.resolve("file-" + i + ".dat").toFile();
+            Files.write(file.toPath(), new byte[1024]);
+            files.add(file);
+            track(file);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        checker.shutdown();
+        for (File file : files) {
+            file.delete();
+        }
+        directory.toFile().delete();
+    }
+
+    @Benchmark
+    public int checkPendingFiles() {
+        checker.checkPendingFiles();
+        return checker.getPendingCount();
+    }
+
+    private void track(File file) {
+        checker.whenStable(file, () -> track(file), () -> { });
+    }
+}
@@ -0,0 +1,47 @@
+package com.filemonitor.loadtest;
+
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.shell.ProcessShellFactory;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+
+/**
+ * 进程内的SFTP服务器（Apache MINA SSHD），只监听本机回环地址
+ * 直接使用本地文件系统，远程路径即本机绝对路径；支持exec通道，批量tar上传也可以压测
+ */
+class EmbeddedSftpServer {
+    private final SshServer server;
+
+    EmbeddedSftpServer(Path hostKeyFile) {
+        server = SshServer.setUpDefaultServer();
+        server.setHost("127.0.0.1");
+        server.setPort(0);
+        server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(hostKeyFile));
+        // 只监听本机，接受任意客户端密钥
+        server.setPublickeyAuthenticator((username, key, session) -> true);
+        server.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
+        // 整条命令交给sh执行，与常规sshd的行为一致
+        server.setCommandFactory((channel, command) ->
+            new ProcessShellFactory(command, "/bin/sh", "-c", command).createShell(channel));
+    }
+
+    void start() throws IOException {
+        server.start();
+    }
+
+    int getPort() {
+        return server.getPort();
+    }
+
+    void stop() {
+        try {
+            server.stop(true);
+        } catch (IOException e) {
+            // 压测结束时关闭，忽略
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.filemonitor.loadtest;
+
+import java.io.File;
+
+/**
+ * 压测生成的一个文件：最终大小预先确定，写完和在远端出现完整内容的时间由生成器和观察线程分别记录
+ */
+class GeneratedFile {
+    private final File localFile;
+    private final File remoteFile;
+    private final long size;
+    private volatile long writtenAt;
+    private volatile long uploadedAt;
+
+    GeneratedFile(File localFile, File remoteFile, long size) {
+        this.localFile = localFile;
+        this.remoteFile = remoteFile;
+        this.size = size;
+    }
+
+    File getLocalFile() {
+        return localFile;
+    }
+
+    File getRemoteFile() {
+        return remoteFile;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    long getWrittenAt() {
+        return writtenAt;
+    }
+
+    void markWritten() {
+        writtenAt = System.currentTimeMillis();
+    }
+
+    long getUploadedAt() {
+        return uploadedAt;
+    }
+
+    boolean isUploaded() {
+        return uploadedAt > 0;
+    }
+
+    /**
+     * 写完之后远端出现同样大小的文件才算上传完成，追加过程中的中间版本不计
+     */
+    boolean checkUploaded(long remoteSize) {
+        if (uploadedAt == 0 && writtenAt > 0 && remoteSize == size) {
+            uploadedAt = System.currentTimeMillis();
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,304 @@
+package com.filemonitor.loadtest;
+
+import com.filemonitor.config.MonitorConfig;
+import com.filemonitor.metrics.MetricsRegistry;
+import com.filemonitor.monitor.FileMonitorService;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.KeyPair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 端到端压测
+ * 在本机启动内嵌SFTP服务器，按applicationContext.xml装配完整的监控服务指向它，
+ * 向监控目录写入配置的负载，统计文件数/秒、MB/秒以及从写完到远端出现完整文件的延迟分位数，
+ * 全程不需要网络和外部主机
+ *
+ * 参数均为系统属性：
+ *   loadtest.workloads  逗号分隔的负载，small/large/append，默认全部
+ *   loadtest.small.files/size/rate, loadtest.large.files/size,
+ *   loadtest.append.writers/chunks/chunkSize/interval
+ *   loadtest.mappingOptions  追加到每个映射行的选项，如 batch=tgz
+ *   loadtest.timeout  等待上传完成的秒数，超时视为失败
+ *   loadtest.dir  工作目录，默认临时目录，结束后删除（loadtest.keep=true时保留）
+ * 其余sftp.*、monitor.*属性与正式运行相同，未设置时使用压测默认值
+ */
+public class LoadTestHarness {
+    private static final Logger log = LoggerFactory.getLogger(LoadTestHarness.class);
+    private static final long WATCH_INTERVAL = 20;
+    private static final long PROGRESS_INTERVAL = 5000;
+
+    public static void main(String[] args) throws Exception {
+        Path workspace = System.getProperty("loadtest.dir") != null
+            ? Files.createDirectories(Paths.get(System.getProperty("loadtest.dir")))
+            : Files.createTempDirectory("filemonitor-loadtest");
+        boolean passed;
+        try {
+            passed = new LoadTestHarness().run(workspace);
+        } finally {
+            if (!Boolean.getBoolean("loadtest.keep")) {
+                deleteRecursively(workspace);
+            }
+        }
+        if (!passed) {
+            throw new IllegalStateException("Load test did not complete within the timeout");
+        }
+    }
+
+    private boolean run(Path workspace) throws Exception {
+        List<Workload> workloads = createWorkloads(workspace);
+
+        Path clientKey = workspace.resolve("client_key");
+        KeyPair keyPair = KeyPair.genKeyPair(new JSch(), KeyPair.RSA, 2048);
+        keyPair.writePrivateKey(clientKey.toString());
+        keyPair.dispose();
+
+        EmbeddedSftpServer server = new EmbeddedSftpServer(workspace.resolve("host_key.ser"));
+        server.start();
+        log.info("Embedded SFTP server listening on 127.0.0.1:{}", server.getPort());
+
+        Path mappingFile = workspace.resolve("file_mappings.txt");
+        writeMappings(mappingFile, workloads);
+        configure(server.getPort(), clientKey, mappingFile, workspace.resolve("processed_files.json"));
+
+        ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext("applicationContext.xml");
+        try {
+            FileMonitorService monitorService = context.getBean(FileMonitorService.class);
+            MetricsRegistry metrics = context.getBean(MetricsRegistry.class);
+            monitorService.startMonitoring();
+
+            long timeout = TimeUnit.SECONDS.toMillis(Long.getLong("loadtest.timeout", 600));
+            boolean completed = generateAndWait(workloads, timeout);
+            report(workloads, metrics.snapshot(), completed);
+            return completed;
+        } finally {
+            context.close();
+            server.stop();
+        }
+    }
+
+    private static List<Workload> createWorkloads(Path workspace) throws IOException {
+        List<Workload> workloads = new ArrayList<>();
+        for (String name : System.getProperty("loadtest.workloads", "small,large,append").split(",")) {
+            switch (name.trim()) {
+                case "small":
+                    workloads.add(Workload.small(workspace,
+                        Integer.getInteger("loadtest.small.files", 2000),
+                        Long.getLong("loadtest.small.size", 4096),
+                        Integer.getInteger("loadtest.small.rate", 0)));
+                    break;
+                case "large":
+                    workloads.add(Workload.large(workspace,
+                        Integer.getInteger("loadtest.large.files", 2),
+                        Long.getLong("loadtest.large.size", 256L * 1024 * 1024)));
+                    break;
+                case "append":
+                    workloads.add(Workload.append(workspace,
+                        Integer.getInteger("loadtest.append.writers", 4),
+                        Integer.getInteger("loadtest.append.chunks", 20),
+                        Integer.getInteger("loadtest.append.chunkSize", 64 * 1024),
+                        Long.getLong("loadtest.append.interval", 200)));
+                    break;
+                case "":
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown workload: " + name);
+            }
+        }
+        if (workloads.isEmpty()) {
+            throw new IllegalArgumentException("No workloads configured");
+        }
+        return workloads;
+    }
+
+    private static void writeMappings(Path mappingFile, List<Workload> workloads) throws IOException {
+        String options = System.getProperty("loadtest.mappingOptions", "");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(mappingFile))) {
+            for (Workload workload : workloads) {
+                writer.println(".*|" + workload.getSourceDir() + "|" + workload.getRemoteDir()
+                    + "|name=" + workload.getName() + (options.isEmpty() ? "" : "," + options));
+            }
+        }
+    }
+
+    /**
+     * 填充applicationContext.xml中的占位符
+     * 内嵌服务器的地址、密钥、映射文件和记录文件每次新生成，总是覆盖；其余属性已在命令行指定时保持不变
+     */
+    private static void configure(int port, Path clientKey, Path mappingFile, Path recordFile) {
+        System.setProperty("sftp.host", "127.0.0.1");
+        System.setProperty("sftp.port", String.valueOf(port));
+        System.setProperty("sftp.privateKeyPath", clientKey.toString());
+        System.setProperty("sftp.privateKeyPassphrase", "");
+        System.setProperty("monitor.mappingFile", mappingFile.toString());
+        System.setProperty("monitor.recordFile", recordFile.toString());
+
+        Map<String, String> defaults = new HashMap<>();
+        defaults.put("sftp.username", "loadtest");
+        defaults.put("monitor.pollingInterval", "1000");
+        defaults.put("monitor.engine", MonitorConfig.ENGINE_AUTO);
+        defaults.put("metrics.port", "0");
+        defaults.forEach((key, value) -> {
+            if (System.getProperty(key) == null) {
+                System.setProperty(key, value);
+            }
+        });
+    }
+
+    /**
+     * 各负载并行写入，观察线程按远程目录列表判断完成，直到全部上传或超时
+     */
+    private static boolean generateAndWait(List<Workload> workloads, long timeout) throws Exception {
+        ExecutorService generators = Executors.newFixedThreadPool(workloads.size(), r -> {
+            Thread thread = new Thread(r, "loadtest-generator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Workload workload : workloads) {
+                log.info("Starting workload {}: {} files, {} bytes", workload.getName(),
+                    workload.getFiles().size(), workload.getTotalBytes());
+                futures.add(generators.submit(() -> {
+                    workload.run();
+                    return null;
+                }));
+            }
+
+            long deadline = System.currentTimeMillis() + timeout;
+            long nextProgress = System.currentTimeMillis() + PROGRESS_INTERVAL;
+            int total = workloads.stream().mapToInt(workload -> workload.getFiles().size()).sum();
+            int uploaded = 0;
+            while (uploaded < total) {
+                for (Future<?> future : futures) {
+                    if (future.isDone()) {
+                        future.get();
+                    }
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    log.error("Timed out with {}/{} files uploaded", uploaded, total);
+                    return false;
+                }
+                for (Workload workload : workloads) {
+                    uploaded += checkRemote(workload);
+                }
+                if (System.currentTimeMillis() >= nextProgress) {
+                    log.info("{}/{} files uploaded", uploaded, total);
+                    nextProgress += PROGRESS_INTERVAL;
+                }
+                Thread.sleep(WATCH_INTERVAL);
+            }
+            return true;
+        } finally {
+            generators.shutdownNow();
+        }
+    }
+
+    /**
+     * 列出远程目录，返回本轮新确认上传完成的文件数
+     */
+    private static int checkRemote(Workload workload) throws IOException {
+        Map<String, GeneratedFile> pending = new HashMap<>();
+        for (GeneratedFile file : workload.getFiles()) {
+            if (!file.isUploaded() && file.getWrittenAt() > 0) {
+                pending.put(file.getRemoteFile().getName(), file);
+            }
+        }
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        int confirmed = 0;
+        try (Stream<Path> entries = Files.list(workload.getRemoteDir())) {
+            for (Path entry : (Iterable<Path>) entries::iterator) {
+                GeneratedFile file = pending.get(entry.getFileName().toString());
+                if (file != null && file.checkUploaded(entry.toFile().length())) {
+                    confirmed++;
+                }
+            }
+        }
+        return confirmed;
+    }
+
+    private static void report(List<Workload> workloads, Map<String, Number> metrics, boolean completed) {
+        StringBuilder out = new StringBuilder();
+        out.append('\n').append(completed ? "Load test completed" : "Load test INCOMPLETE").append('\n');
+        out.append(String.format("%-8s %8s %12s %10s %10s %10s %10s %10s%n",
+            "workload", "files", "bytes", "seconds", "files/s", "MB/s", "p50(ms)", "p99(ms)"));
+        for (Workload workload : workloads) {
+            List<GeneratedFile> done = new ArrayList<>();
+            long bytes = 0;
+            long end = workload.getStartedAt();
+            for (GeneratedFile file : workload.getFiles()) {
+                if (file.isUploaded()) {
+                    done.add(file);
+                    bytes += file.getSize();
+                    end = Math.max(end, file.getUploadedAt());
+                }
+            }
+            long[] latencies = done.stream()
+                .mapToLong(file -> file.getUploadedAt() - file.getWrittenAt())
+                .sorted()
+                .toArray();
+            double seconds = Math.max(1, end - workload.getStartedAt()) / 1000.0;
+            out.append(String.format("%-8s %8d %12d %10.2f %10.1f %10.2f %10d %10d%n",
+                workload.getName(), done.size(), bytes, seconds, done.size() / seconds,
+                bytes / seconds / (1024 * 1024), percentile(latencies, 0.50), percentile(latencies, 0.99)));
+        }
+        out.append("Latency above is measured from the end of the local write until the complete file is visible remotely.\n");
+        out.append("Service metrics:\n");
+        for (String name : Arrays.asList("events.received", "files.uploaded", "files.failed", "files.deferred",
+                "files.skipped", "batches.uploaded", "executor.spilled", "executor.limit",
+                "sftp.delta.uploads", "sftp.delta.savedBytes", "bandwidth.limit.global", "bandwidth.waitMillis",
+                "latency.eventToUpload.p50", "latency.eventToUpload.p99", "latency.eventToUpload.max",
+                "stability.wait.p50", "stability.wait.p99", "hash.time.p99")) {
+            if (metrics.containsKey(name)) {
+                out.append(String.format("  %-28s %s%n", name, metrics.get(name)));
+            }
+        }
+        for (Workload workload : workloads) {
+            for (String suffix : Arrays.asList(".p50", ".p99", ".max")) {
+                String name = "queue.wait." + workload.getName() + suffix;
+                if (metrics.containsKey(name)) {
+                    out.append(String.format("  %-28s %s%n", name, metrics.get(name)));
+                }
+            }
+        }
+        System.out.print(out);
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.filemonitor.loadtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一类文件负载，对应一个映射（独立的本地目录和远程目录）
+ * small：大量小文件；large：少量大文件；append：多个写入者持续追加
+ */
+abstract class Workload {
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    // 所有文件共用的随机内容，避免生成数据本身成为瓶颈
+    private static final byte[] DATA = new byte[CHUNK_SIZE];
+
+    static {
+        new Random(42).nextBytes(DATA);
+    }
+
+    private final String name;
+    private final Path sourceDir;
+    private final Path remoteDir;
+    private final List<GeneratedFile> files = new ArrayList<>();
+    private volatile long startedAt;
+
+    Workload(String name, Path workspace) throws IOException {
+        this.name = name;
+        this.sourceDir = Files.createDirectories(workspace.resolve("local").resolve(name));
+        this.remoteDir = Files.createDirectories(workspace.resolve("remote").resolve(name));
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Path getSourceDir() {
+        return sourceDir;
+    }
+
+    Path getRemoteDir() {
+        return remoteDir;
+    }
+
+    List<GeneratedFile> getFiles() {
+        return Collections.unmodifiableList(files);
+    }
+
+    long getStartedAt() {
+        return startedAt;
+    }
+
+    long getTotalBytes() {
+        return files.stream().mapToLong(GeneratedFile::getSize).sum();
+    }
+
+    void run() throws Exception {
+        startedAt = System.currentTimeMillis();
+        generate();
+    }
+
+    protected GeneratedFile addFile(String fileName, long size) {
+        GeneratedFile file = new GeneratedFile(sourceDir.resolve(fileName).toFile(),
+            remoteDir.resolve(fileName).toFile(), size);
+        files.add(file);
+        return file;
+    }
+
+    protected abstract void generate() throws Exception;
+
+    static void write(OutputStream out, long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            int n = (int) Math.min(remaining, CHUNK_SIZE);
+            out.write(DATA, 0, n);
+            remaining -= n;
+        }
+    }
+
+    /**
+     * 逐个写入小文件，rate大于0时按每秒rate个的速度匀速写入
+     */
+    static Workload small(Path workspace, int count, long size, int rate) throws IOException {
+        return new Workload("small", workspace) {
+            {
+                for (int i = 0; i < count; i++) {
+                    addFile(String.format("small-%06d.dat", i), size);
+                }
+            }
+
+            @Override
+            protected void generate() throws Exception {
+                long start = System.nanoTime();
+                int i = 0;
+                for (GeneratedFile file : getFiles()) {
+                    if (rate > 0) {
+                        long due = start + TimeUnit.SECONDS.toNanos(i++) / rate;
+                        long wait = due - System.nanoTime();
+                        if (wait > 0) {
+                            TimeUnit.NANOSECONDS.sleep(wait);
+                        }
+                    }
+                    try (OutputStream out = new FileOutputStream(file.getLocalFile())) {
+                        write(out, file.getSize());
+                    }
+                    file.markWritten();
+                }
+            }
+        };
+    }
+
+    /**
+     * 依次写入大文件
+     */
+    static Workload large(Path workspace, int count, long size) throws IOException {
+        return new Workload("large", workspace) {
+            {
+                for (int i = 0; i < count; i++) {
+                    addFile(String.format("large-%03d.dat", i), size);
+                }
+            }
+
+            @Override
+            protected void generate() throws Exception {
+                for (GeneratedFile file : getFiles()) {
+                    try (OutputStream out = new FileOutputStream(file.getLocalFile())) {
+                        write(out, file.getSize());
+                    }
+                    file.markWritten();
+                }
+            }
+        };
+    }
+
+    /**
+     * 每个写入者一个文件，每隔interval毫秒追加一块，共追加chunks块
+     */
+    static Workload append(Path workspace, int writers, int chunks, int chunkSize, long interval) throws IOException {
+        return new Workload("append", workspace) {
+            {
+                for (int i = 0; i < writers; i++) {
+                    addFile(String.format("append-%03d.log", i), (long) chunks * chunkSize);
+                }
+            }
+
+            @Override
+            protected void generate() throws Exception {
+                ExecutorService executor = Executors.newFixedThreadPool(writers, r -> {
+                    Thread thread = new Thread(r, "loadtest-appender");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                try {
+                    List<Future<?>> futures = new ArrayList<>();
+                    for (GeneratedFile file : getFiles()) {
+                        futures.add(executor.submit(() -> {
+                            appendChunks(file.getLocalFile(), chunks, chunkSize, interval);
+                            file.markWritten();
+                            return null;
+                        }));
+                    }
+                    for (Future<?> future : futures) {
+                        future.get();
+                    }
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
+        };
+    }
+
+    private static void appendChunks(File file, int chunks, int chunkSize, long interval)
+            throws IOException, InterruptedException {
+        for (int i = 0; i < chunks; i++) {
+            try (OutputStream out = new FileOutputStream(file, true)) {
+                write(out, chunkSize);
+            }
+            if (i < chunks - 1) {
+                Thread.sleep(interval);
+            }
+        }
+    }
+}
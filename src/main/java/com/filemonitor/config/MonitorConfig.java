@@ -1,16 +1,49 @@
 package com.filemonitor.config;
 
 import java.io.IOException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class MonitorConfig {
-    private List<FileMapping> fileMappings;
+    public static final String ENGINE_POLLING = "polling"; // commons-io轮询
+    public static final String ENGINE_NATIVE = "native";   // java.nio WatchService（inotify）
+    public static final String ENGINE_AUTO = "auto";       // 本地文件系统用native，网络文件系统用polling
+
+    // 映射文件修改后整体替换，读取方拿到的总是一个完整的列表
+    private volatile List<FileMapping> fileMappings;
     private String recordFile;
     private String mappingFile;
+    private long mappingReloadInterval = 5000;  // 检查映射文件是否修改的间隔（毫秒），0表示不重新加载
     private long pollingInterval;
+    private String monitorEngine = ENGINE_POLLING;
+    private long debounceWindow = 1000;  // 同一文件事件的静默窗口（毫秒）
+    private int scanThreads = 4;         // 启动时存量扫描的并行线程数
+    // 上传失败重试
+    private long retryBaseDelay = 5000;          // 首次重试延迟（毫秒），之后按指数增长
+    private long retryMaxDelay = 600000;         // 重试延迟上限（毫秒）
+    private int circuitBreakerThreshold = 5;     // 连续失败多少次后熔断
+    private long circuitBreakerCooldown = 30000; // 熔断后多久放行探测请求（毫秒）
+    // 小文件批量上传（映射启用batch选项时生效）
+    private int batchMaxFiles = 500;                    // 每批最多文件数
+    private long batchMaxBytes = 8 * 1024 * 1024;       // 每批最大字节数，不小于该值的文件单独上传
+    private long batchMaxDelay = 2000;                  // 第一个文件入批后最多等待多久发送（毫秒）
+    // 上传线程池，最小和最大线程数不同时按吞吐自动调整
+    private int workerMinThreads = 4;
+    private int workerMaxThreads = 16;
+    private int workerQueueCapacity = 1000;             // 排队上限，超出的文件转入重试队列稍后再处理
+    // 排队调度：按文件大小分通道，通道之间和映射之间按权重轮流出队
+    private long[] laneThresholds = {1024 * 1024};      // 各通道的文件大小上界（字节），升序
+    private int[] laneWeights = {4, 1};                 // 各通道的权重，比上界多一个
+    private int mappingMaxConcurrent;                   // 每个映射同时处理的任务数上限，0表示不限
 
     public List<FileMapping> getFileMappings() {
         return fileMappings;
@@ -36,6 +69,14 @@ public class MonitorConfig {
         this.mappingFile = mappingFile;
     }
 
+    public long getMappingReloadInterval() {
+        return mappingReloadInterval;
+    }
+
+    public void setMappingReloadInterval(long mappingReloadInterval) {
+        this.mappingReloadInterval = mappingReloadInterval;
+    }
+
     public long getPollingInterval() {
         return pollingInterval;
     }
@@ -44,10 +85,155 @@ public class MonitorConfig {
         this.pollingInterval = pollingInterval;
     }
 
+    public String getMonitorEngine() {
+        return monitorEngine;
+    }
+
+    public void setMonitorEngine(String monitorEngine) {
+        this.monitorEngine = monitorEngine;
+    }
+
+    public long getDebounceWindow() {
+        return debounceWindow;
+    }
+
+    public void setDebounceWindow(long debounceWindow) {
+        this.debounceWindow = debounceWindow;
+    }
+
+    public int getScanThreads() {
+        return scanThreads;
+    }
+
+    public void setScanThreads(int scanThreads) {
+        this.scanThreads = scanThreads;
+    }
+
+    public long getRetryBaseDelay() {
+        return retryBaseDelay;
+    }
+
+    public void setRetryBaseDelay(long retryBaseDelay) {
+        this.retryBaseDelay = retryBaseDelay;
+    }
+
+    public long getRetryMaxDelay() {
+        return retryMaxDelay;
+    }
+
+    public void setRetryMaxDelay(long retryMaxDelay) {
+        this.retryMaxDelay = retryMaxDelay;
+    }
+
+    public int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    public void setCircuitBreakerThreshold(int circuitBreakerThreshold) {
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+    }
+
+    public long getCircuitBreakerCooldown() {
+        return circuitBreakerCooldown;
+    }
+
+    public void setCircuitBreakerCooldown(long circuitBreakerCooldown) {
+        this.circuitBreakerCooldown = circuitBreakerCooldown;
+    }
+
+    public int getBatchMaxFiles() {
+        return batchMaxFiles;
+    }
+
+    public void setBatchMaxFiles(int batchMaxFiles) {
+        this.batchMaxFiles = batchMaxFiles;
+    }
+
+    public long getBatchMaxBytes() {
+        return batchMaxBytes;
+    }
+
+    public void setBatchMaxBytes(long batchMaxBytes) {
+        this.batchMaxBytes = batchMaxBytes;
+    }
+
+    public long getBatchMaxDelay() {
+        return batchMaxDelay;
+    }
+
+    public void setBatchMaxDelay(long batchMaxDelay) {
+        this.batchMaxDelay = batchMaxDelay;
+    }
+
+    public int getWorkerMinThreads() {
+        return workerMinThreads;
+    }
+
+    public void setWorkerMinThreads(int workerMinThreads) {
+        this.workerMinThreads = workerMinThreads;
+    }
+
+    public int getWorkerMaxThreads() {
+        return workerMaxThreads;
+    }
+
+    public void setWorkerMaxThreads(int workerMaxThreads) {
+        this.workerMaxThreads = workerMaxThreads;
+    }
+
+    public int getWorkerQueueCapacity() {
+        return workerQueueCapacity;
+    }
+
+    public void setWorkerQueueCapacity(int workerQueueCapacity) {
+        this.workerQueueCapacity = workerQueueCapacity;
+    }
+
+    public long[] getLaneThresholds() {
+        return laneThresholds;
+    }
+
+    public void setLaneThresholds(long[] laneThresholds) {
+        this.laneThresholds = laneThresholds;
+    }
+
+    public int[] getLaneWeights() {
+        return laneWeights;
+    }
+
+    public void setLaneWeights(int[] laneWeights) {
+        this.laneWeights = laneWeights;
+    }
+
+    public int getMappingMaxConcurrent() {
+        return mappingMaxConcurrent;
+    }
+
+    public void setMappingMaxConcurrent(int mappingMaxConcurrent) {
+        this.mappingMaxConcurrent = mappingMaxConcurrent;
+    }
+
     public static class FileMapping {
+        public static final String GLOB_PREFIX = "glob:";
+        public static final String BATCH_TAR = "tar";
+        public static final String BATCH_TGZ = "tgz";
+        // targetPath所在的主目的地（sftp.*配置的主机）
+        public static final String PRIMARY_DESTINATION = "primary";
+        private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_-]+");
+
         private String sourcePath;
         private String targetPath;
         private String pattern;
+        private String definition; // 映射文件中的原始行
+        private String batchMode;  // 批量上传方式，null表示逐个上传
+        private boolean delta;     // 修改过的文件只上传变化的部分
+        private String name;       // 指标中使用的映射名，默认取源目录名
+        private int weight = 1;    // 排队调度的权重
+        private int maxConcurrent; // 同时处理的任务数上限，0表示使用全局设置
+        private final List<Destination> mirrors = new ArrayList<>();  // 同时复制到的其他目的地
+        // 设置pattern时预编译，匹配时不再重复编译
+        private Pattern compiledPattern;
+        private PathMatcher globMatcher;
 
         public String getSourcePath() {
             return sourcePath;
@@ -69,32 +255,245 @@ public class MonitorConfig {
             return pattern;
         }
 
+        /**
+         * 设置文件名匹配模式，默认为正则表达式，以"glob:"开头时按glob语法匹配（如 glob:*.txt）
+         */
         public void setPattern(String pattern) {
             this.pattern = pattern;
+            if (pattern.startsWith(GLOB_PREFIX)) {
+                this.globMatcher = FileSystems.getDefault().getPathMatcher(pattern);
+                this.compiledPattern = null;
+            } else {
+                this.compiledPattern = Pattern.compile(pattern);
+                this.globMatcher = null;
+            }
+        }
+
+        /**
+         * 正则模式的预编译结果，glob模式时为null
+         */
+        public Pattern getCompiledPattern() {
+            return compiledPattern;
+        }
+
+        public String getBatchMode() {
+            return batchMode;
+        }
+
+        public void setBatchMode(String batchMode) {
+            if (batchMode != null && !BATCH_TAR.equals(batchMode) && !BATCH_TGZ.equals(batchMode)) {
+                throw new IllegalArgumentException("Unsupported batch mode: " + batchMode);
+            }
+            this.batchMode = batchMode;
+        }
+
+        /**
+         * 是否把小文件打包成批上传
+         */
+        public boolean isBatched() {
+            return batchMode != null;
+        }
+
+        public boolean isBatchCompressed() {
+            return BATCH_TGZ.equals(batchMode);
+        }
+
+        /**
+         * 文件修改后是否增量上传（追加的部分或变化的块），变化的块写入远程文件改名后的临时文件
+         */
+        public boolean isDelta() {
+            return delta;
+        }
+
+        public void setDelta(boolean delta) {
+            this.delta = delta;
+        }
+
+        /**
+         * 映射名，用于按映射导出的指标（如 queue.wait.<name>）和按映射的带宽限制；未设置时取源目录的最后一级，非法字符替换为下划线
+         */
+        public String getName() {
+            if (name != null) {
+                return name;
+            }
+            String path = sourcePath == null ? "" : sourcePath.replaceAll("[/\\\\]+$", "");
+            String last = path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1);
+            return last.isEmpty() ? "root" : last.replaceAll("[^A-Za-z0-9_-]", "_");
+        }
+
+        public void setName(String name) {
+            if (name == null || !NAME_PATTERN.matcher(name).matches()) {
+                throw new IllegalArgumentException("Invalid mapping name: " + name);
+            }
+            this.name = name;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public void setWeight(int weight) {
+            if (weight < 1) {
+                throw new IllegalArgumentException("Mapping weight must be positive: " + weight);
+            }
+            this.weight = weight;
+        }
+
+        public int getMaxConcurrent() {
+            return maxConcurrent;
+        }
+
+        public void setMaxConcurrent(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+        }
+
+        public List<Destination> getMirrors() {
+            return Collections.unmodifiableList(mirrors);
+        }
+
+        public void addMirror(Destination mirror) {
+            mirrors.add(mirror);
+        }
+
+        /**
+         * 所有目的地，主目的地在前
+         */
+        public List<Destination> getDestinations() {
+            List<Destination> destinations = new ArrayList<>(mirrors.size() + 1);
+            destinations.add(new Destination(PRIMARY_DESTINATION, targetPath));
+            destinations.addAll(mirrors);
+            return destinations;
+        }
+
+        /**
+         * 映射的唯一标识，与映射文件中的行格式一致
+         */
+        public String getKey() {
+            return pattern + "|" + sourcePath + "|" + targetPath;
+        }
+
+        /**
+         * 映射的完整定义（含选项），重新加载映射文件时据此判断映射是否变化；不是从映射文件读取的映射等同于getKey
+         */
+        public String getDefinition() {
+            return definition != null ? definition : getKey();
         }
 
+        /**
+         * 判断文件名是否匹配该映射
+         */
+        public boolean matches(String fileName) {
+            if (globMatcher != null) {
+                return globMatcher.matches(Paths.get(fileName));
+            }
+            return compiledPattern.matcher(fileName).matches();
+        }
+
+        /**
+         * 解析映射行：pattern|sourcePath|targetPath[|options]
+         * options为逗号分隔的选项，如 batch=tgz,mirror=dr:/backup/path,delta,name=logs,weight=2,maxConcurrent=4
+         */
         public static FileMapping fromLine(String line) {
             String[] parts = line.trim().split("\\|");
-            if (parts.length != 3) {
+            if (parts.length != 3 && parts.length != 4) {
                 throw new IllegalArgumentException("Invalid mapping line format: " + line);
             }
             FileMapping mapping = new FileMapping();
+            mapping.definition = line.trim();
             mapping.setPattern(parts[0].trim());
             mapping.setSourcePath(parts[1].trim());
             mapping.setTargetPath(parts[2].trim());
+            if (parts.length == 4) {
+                mapping.applyOptions(parts[3].trim());
+            }
             return mapping;
         }
+
+        private void applyOptions(String options) {
+            for (String option : options.split(",")) {
+                String[] pair = option.trim().split("=", 2);
+                String name = pair[0].trim();
+                String value = pair.length > 1 ? pair[1].trim() : null;
+                if (name.isEmpty()) {
+                    continue;
+                }
+                if ("batch".equals(name)) {
+                    setBatchMode(value == null ? BATCH_TAR : value);
+                } else if ("delta".equals(name)) {
+                    setDelta(value == null || Boolean.parseBoolean(value));
+                } else if ("mirror".equals(name)) {
+                    addMirror(Destination.parse(value));
+                } else if ("name".equals(name)) {
+                    setName(value);
+                } else if ("weight".equals(name)) {
+                    setWeight(Integer.parseInt(value));
+                } else if ("maxConcurrent".equals(name)) {
+                    setMaxConcurrent(Integer.parseInt(value));
+                } else {
+                    throw new IllegalArgumentException("Unknown mapping option: " + option);
+                }
+            }
+        }
+    }
+
+    /**
+     * 映射的一个上传目的地：目的地名（对应目的地配置文件中的主机）和远程路径
+     */
+    public static class Destination {
+        private final String name;
+        private final String targetPath;
+
+        public Destination(String name, String targetPath) {
+            this.name = name;
+            this.targetPath = targetPath;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getTargetPath() {
+            return targetPath;
+        }
+
+        /**
+         * 解析 name:/remote/path
+         */
+        static Destination parse(String value) {
+            int split = value == null ? -1 : value.indexOf(':');
+            if (split <= 0 || split == value.length() - 1) {
+                throw new IllegalArgumentException("Invalid mirror, expected name:/remote/path: " + value);
+            }
+            return new Destination(value.substring(0, split).trim(), value.substring(split + 1).trim());
+        }
     }
 
     public void loadFileMappings() throws IOException {
+        fileMappings = readFileMappings();
+    }
+
+    /**
+     * 读取并解析映射文件，不修改当前配置
+     * 映射名必须唯一（指标和带宽限制按映射名区分），同一源目录下的多个映射需要用name=区分
+     */
+    public List<FileMapping> readFileMappings() throws IOException {
         if (mappingFile == null || mappingFile.isEmpty()) {
             throw new IllegalStateException("Mapping file path not configured");
         }
 
         List<String> lines = Files.readAllLines(Paths.get(mappingFile));
-        fileMappings = lines.stream()
+        List<FileMapping> mappings = lines.stream()
             .filter(line -> !line.trim().isEmpty() && !line.startsWith("#"))
             .map(FileMapping::fromLine)
             .collect(Collectors.toList());
+        Map<String, FileMapping> names = new HashMap<>();
+        for (FileMapping mapping : mappings) {
+            FileMapping previous = names.putIfAbsent(mapping.getName(), mapping);
+            if (previous != null) {
+                throw new IllegalArgumentException("Duplicate mapping name " + mapping.getName() + " for "
+                    + previous.getKey() + " and " + mapping.getKey() + ", set name= to distinguish them");
+            }
+        }
+        return mappings;
     }
 } 
\ No newline at end of file
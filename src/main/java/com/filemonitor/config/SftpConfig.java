@@ -7,6 +7,20 @@ public class SftpConfig {
     private String privateKeyPath;
     private String privateKeyPassphrase;  // 如果私钥有密码的话
 
+    // 连接池配置
+    private int maxSessions = 2;                // 最多保持的SSH会话数
+    private int channelsPerSession = 4;         // 每个会话上最多打开的SFTP通道数
+    private long idleTimeout = 300000;          // 空闲通道/会话的回收时间（毫秒）
+    private long validationInterval = 30000;    // 空闲超过该时间的通道借出前需做一次往返校验（毫秒）
+    private int connectTimeout = 30000;         // 建立会话/通道的超时时间（毫秒）
+    private int serverAliveInterval = 60000;    // SSH心跳间隔（毫秒），0表示关闭
+
+    // 大文件分段并行上传；各段按偏移并行读取，文件摘要需要另外顺序读一遍，本地读取量是单流上传的两倍
+    private long segmentThreshold = 0;              // 超过该大小的文件分段上传（字节），0表示关闭
+    private long segmentSize = 32 * 1024 * 1024;    // 每段大小（字节）
+    private int segmentParallelism = 4;             // 同时上传的段数
+    private int segmentRetries = 3;                 // 单段失败后的重试次数
+
     public String getHost() {
         return host;
     }
@@ -46,4 +60,108 @@ public class SftpConfig {
     public void setPrivateKeyPassphrase(String privateKeyPassphrase) {
         this.privateKeyPassphrase = privateKeyPassphrase;
     }
-} 
\ No newline at end of file
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    public void setMaxSessions(int maxSessions) {
+        this.maxSessions = maxSessions;
+    }
+
+    public int getChannelsPerSession() {
+        return channelsPerSession;
+    }
+
+    public void setChannelsPerSession(int channelsPerSession) {
+        this.channelsPerSession = channelsPerSession;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public long getValidationInterval() {
+        return validationInterval;
+    }
+
+    public void setValidationInterval(long validationInterval) {
+        this.validationInterval = validationInterval;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getServerAliveInterval() {
+        return serverAliveInterval;
+    }
+
+    public void setServerAliveInterval(int serverAliveInterval) {
+        this.serverAliveInterval = serverAliveInterval;
+    }
+
+    public long getSegmentThreshold() {
+        return segmentThreshold;
+    }
+
+    public void setSegmentThreshold(long segmentThreshold) {
+        this.segmentThreshold = segmentThreshold;
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public int getSegmentParallelism() {
+        return segmentParallelism;
+    }
+
+    public void setSegmentParallelism(int segmentParallelism) {
+        this.segmentParallelism = segmentParallelism;
+    }
+
+    public int getSegmentRetries() {
+        return segmentRetries;
+    }
+
+    public void setSegmentRetries(int segmentRetries) {
+        this.segmentRetries = segmentRetries;
+    }
+
+    /**
+     * 复制连接池和分段上传配置，使用另一个主机和账号（用于镜像目的地）
+     */
+    public SftpConfig withEndpoint(String host, int port, String username,
+                                   String privateKeyPath, String privateKeyPassphrase) {
+        SftpConfig copy = new SftpConfig();
+        copy.setHost(host);
+        copy.setPort(port);
+        copy.setUsername(username);
+        copy.setPrivateKeyPath(privateKeyPath);
+        copy.setPrivateKeyPassphrase(privateKeyPassphrase);
+        copy.setMaxSessions(maxSessions);
+        copy.setChannelsPerSession(channelsPerSession);
+        copy.setIdleTimeout(idleTimeout);
+        copy.setValidationInterval(validationInterval);
+        copy.setConnectTimeout(connectTimeout);
+        copy.setServerAliveInterval(serverAliveInterval);
+        copy.setSegmentThreshold(segmentThreshold);
+        copy.setSegmentSize(segmentSize);
+        copy.setSegmentParallelism(segmentParallelism);
+        copy.setSegmentRetries(segmentRetries);
+        return copy;
+    }
+}
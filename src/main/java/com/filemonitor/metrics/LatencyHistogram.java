@@ -0,0 +1,81 @@
+package com.filemonitor.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 耗时直方图（毫秒）
+ * 按2的幂分桶，记录时只做一次原子自增，分位数取所在桶的上界，精度在2倍以内
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long millis) {
+        long value = Math.max(0, millis);
+        buckets.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * 记录从startMillis（System.currentTimeMillis()）到现在的耗时
+     */
+    public void recordSince(long startMillis) {
+        record(System.currentTimeMillis() - startMillis);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / n;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * 估算分位数
+     * @param quantile 0到1之间
+     */
+    public long getPercentile(double quantile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    private static int bucketOf(long value) {
+        // 0单独一个桶，桶i（i>0）的上界为2^(i-1)
+        int bucket = value == 0 ? 0 : 64 - Long.numberOfLeadingZeros(value - 1) + 1;
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket == 0 ? 0 : 1L << (bucket - 1);
+    }
+}
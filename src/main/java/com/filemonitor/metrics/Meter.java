@@ -0,0 +1,65 @@
+package com.filemonitor.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 计数加速率，速率为最近一分钟的指数加权移动平均（每秒）
+ * 每5秒在读写时顺带衰减一次，不需要后台线程
+ */
+public class Meter {
+    private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private static final double ALPHA = 1 - Math.exp(-5.0 / 60.0);
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder uncounted = new LongAdder();
+    private final AtomicLong lastTick = new AtomicLong(System.nanoTime());
+    private volatile double rate;
+    private volatile boolean initialized;
+
+    public void mark(long n) {
+        tickIfNecessary();
+        count.add(n);
+        uncounted.add(n);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * 最近一分钟的平均速率（每秒）
+     */
+    public double getOneMinuteRate() {
+        tickIfNecessary();
+        return rate;
+    }
+
+    private void tickIfNecessary() {
+        long oldTick = lastTick.get();
+        long now = System.nanoTime();
+        long age = now - oldTick;
+        if (age < TICK_INTERVAL) {
+            return;
+        }
+        long newTick = now - age % TICK_INTERVAL;
+        if (!lastTick.compareAndSet(oldTick, newTick)) {
+            return;
+        }
+        long ticks = age / TICK_INTERVAL;
+        for (long i = 0; i < ticks; i++) {
+            tick();
+        }
+    }
+
+    private synchronized void tick() {
+        double instantRate = uncounted.sumThenReset() / 5.0;
+        if (initialized) {
+            rate += ALPHA * (instantRate - rate);
+        } else {
+            rate = instantRate;
+            initialized = true;
+        }
+    }
+}
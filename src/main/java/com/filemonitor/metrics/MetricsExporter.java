@@ -0,0 +1,171 @@
+package com.filemonitor.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * 指标导出
+ * 通过JMX（com.filemonitor:type=Metrics，每个指标一个只读属性）和
+ * 仅监听本机的HTTP端点（GET /metrics，每行"名称 数值"）对外提供，status.sh通过后者查询
+ */
+public class MetricsExporter {
+    private static final Logger log = LoggerFactory.getLogger(MetricsExporter.class);
+    private static final String OBJECT_NAME = "com.filemonitor:type=Metrics";
+
+    private final MetricsRegistry registry;
+    private final int httpPort;
+    private HttpServer httpServer;
+    private ObjectName objectName;
+
+    /**
+     * @param httpPort HTTP端点端口，0表示不启动HTTP端点
+     */
+    public MetricsExporter(MetricsRegistry registry, int httpPort) {
+        this.registry = registry;
+        this.httpPort = httpPort;
+    }
+
+    public void start() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(new MetricsMBean(), objectName);
+            }
+        } catch (Exception e) {
+            log.warn("Unable to register metrics MBean: {}", e.getMessage());
+        }
+
+        if (httpPort > 0) {
+            try {
+                httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), httpPort), 0);
+                httpServer.createContext("/metrics", this::handleMetrics);
+                httpServer.setExecutor(Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r, "metrics-http");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+                httpServer.start();
+                log.info("Metrics endpoint listening on http://127.0.0.1:{}/metrics", httpPort);
+            } catch (IOException e) {
+                log.warn("Unable to start metrics endpoint on port {}: {}", httpPort, e.getMessage());
+            }
+        }
+    }
+
+    public void shutdown() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                log.debug("Metrics MBean already unregistered: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            StringBuilder body = new StringBuilder();
+            for (Map.Entry<String, Number> entry : registry.snapshot().entrySet()) {
+                body.append(entry.getKey()).append(' ').append(format(entry.getValue())).append('\n');
+            }
+            byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String format(Number value) {
+        if (value instanceof Double) {
+            return String.format(Locale.ROOT, "%.2f", value.doubleValue());
+        }
+        return value.toString();
+    }
+
+    /**
+     * 指标是动态注册的，属性列表每次从注册表实时生成
+     */
+    private class MetricsMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = registry.snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value instanceof Double ? value : value.longValue();
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> snapshot = registry.snapshot();
+            AttributeList list = new AttributeList();
+            for (String name : attributes) {
+                Number value = snapshot.get(name);
+                if (value != null) {
+                    list.add(new Attribute(name, value instanceof Double ? value : value.longValue()));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("No operations available");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Number> snapshot = registry.snapshot();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+            int i = 0;
+            for (Map.Entry<String, Number> entry : snapshot.entrySet()) {
+                String type = entry.getValue() instanceof Double ? "double" : "long";
+                attributes[i++] = new MBeanAttributeInfo(entry.getKey(), type, entry.getKey(), true, false, false);
+            }
+            return new MBeanInfo(MetricsExporter.class.getName(), "File monitor transfer metrics",
+                attributes, null, null, null);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.filemonitor.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 指标注册表
+ * 覆盖从文件事件到上传完成的整条链路：计数器、耗时直方图、速率和瞬时值（gauge），
+ * 同名指标只创建一次，各组件可以直接按名字取用
+ */
+public class MetricsRegistry {
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Meter> meters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    public Meter meter(String name) {
+        return meters.computeIfAbsent(name, key -> new Meter());
+    }
+
+    /**
+     * 注册瞬时值，读取时才调用supplier；同名gauge会被替换
+     */
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * 注销瞬时值，只在该名称仍是这个supplier时注销，不影响之后同名注册的gauge
+     */
+    public void removeGauge(String name, LongSupplier supplier) {
+        gauges.remove(name, supplier);
+    }
+
+    /**
+     * 注销直方图，只在该名称仍是这个直方图时注销
+     */
+    public void removeHistogram(String name, LatencyHistogram histogram) {
+        histograms.remove(name, histogram);
+    }
+
+    /**
+     * 所有指标展开为 名称 -> 数值，按名称排序
+     * 直方图展开为 .count/.mean/.p50/.p95/.p99/.max，速率展开为 .count/.rate1m
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> {
+            try {
+                values.put(name, gauge.getAsLong());
+            } catch (RuntimeException e) {
+                values.put(name, -1L);
+            }
+        });
+        histograms.forEach((name, histogram) -> {
+            values.put(name + ".count", histogram.getCount());
+            values.put(name + ".mean", histogram.getMean());
+            values.put(name + ".p50", histogram.getPercentile(0.50));
+            values.put(name + ".p95", histogram.getPercentile(0.95));
+            values.put(name + ".p99", histogram.getPercentile(0.99));
+            values.put(name + ".max", histogram.getMax());
+        });
+        meters.forEach((name, meter) -> {
+            values.put(name + ".count", meter.getCount());
+            values.put(name + ".rate1m", meter.getOneMinuteRate());
+        });
+        return values;
+    }
+}
@@ -0,0 +1,183 @@
+package com.filemonitor.monitor;
+
+import com.filemonitor.config.MonitorConfig;
+import com.filemonitor.persistence.FileRecordService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * 启动时及新增映射的存量文件扫描
+ * 递归扫描源目录，每个子目录作为独立任务并行处理，边扫描边把未处理的文件交给处理流程；
+ * 扫描在后台进行，不阻塞实时监控的启动。待处理文件过多时暂停扫描，避免一次性塞满队列
+ */
+class BacklogScanner {
+    private static final Logger log = LoggerFactory.getLogger(BacklogScanner.class);
+    private static final int MAX_PENDING_FILES = 10000;
+    private static final long THROTTLE_SLEEP = 100;
+
+    private final ThreadPoolExecutor executor;
+    private final FileRecordService fileRecordService;
+    private final BiConsumer<File, MonitorConfig.FileMapping> submitter;
+    private final IntSupplier pendingFiles;
+
+    BacklogScanner(int threads, FileRecordService fileRecordService,
+                   BiConsumer<File, MonitorConfig.FileMapping> submitter, IntSupplier pendingFiles) {
+        this.fileRecordService = fileRecordService;
+        this.submitter = submitter;
+        this.pendingFiles = pendingFiles;
+
+        AtomicInteger counter = new AtomicInteger(1);
+        this.executor = new ThreadPoolExecutor(
+            threads, threads, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            r -> {
+                Thread thread = new Thread(r, "backlog-scanner-" + counter.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 在后台扫描映射组的源目录树
+     */
+    void scan(MappingGroup group) {
+        ScanProgress progress = new ScanProgress(group);
+        submitDirectory(Paths.get(group.getSourcePath()), progress);
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void submitDirectory(Path directory, ScanProgress progress) {
+        progress.outstanding.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    scanDirectory(directory, progress);
+                } finally {
+                    progress.directoryDone();
+                }
+            });
+        } catch (Exception e) {
+            log.warn("Backlog scan of {} rejected: {}", directory, e.getMessage());
+            progress.directoryDone();
+        }
+    }
+
+    private void scanDirectory(Path directory, ScanProgress progress) {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    // 扫描期间被删除或无权限的条目跳过，不影响目录中的其他文件
+                    log.warn("Skipping {} during backlog scan: {}", entry, e.getMessage());
+                    continue;
+                }
+                if (attrs.isDirectory()) {
+                    // 子目录交给其他扫描线程，不跟随目录符号链接以免循环
+                    submitDirectory(entry, progress);
+                } else if (attrs.isRegularFile() || (attrs.isSymbolicLink() && Files.isRegularFile(entry))) {
+                    handleFile(entry.toFile(), progress);
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            log.warn("Error scanning directory {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private void handleFile(File file, ScanProgress progress) {
+        String name = file.getName();
+        if (!progress.group.accept(name)) {
+            return;
+        }
+        progress.found.incrementAndGet();
+        List<MonitorConfig.FileMapping> pending = new ArrayList<>(1);
+        for (MonitorConfig.FileMapping mapping : progress.group.matching(name)) {
+            if (!isProcessed(file, mapping)) {
+                pending.add(mapping);
+            }
+        }
+        if (pending.isEmpty()) {
+            log.debug("Skipping already processed file: {}", file.getPath());
+            return;
+        }
+
+        throttle();
+        log.debug("Processing existing file: {}", file.getPath());
+        for (MonitorConfig.FileMapping mapping : pending) {
+            submitter.accept(file, mapping);
+        }
+        progress.submitted.incrementAndGet();
+    }
+
+    /**
+     * 映射的所有目的地都已上传过才算已处理，新增的镜像目的地会补传存量文件
+     */
+    private boolean isProcessed(File file, MonitorConfig.FileMapping mapping) {
+        for (MonitorConfig.Destination destination : mapping.getDestinations()) {
+            if (!fileRecordService.isFileProcessed(file, destination.getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void throttle() {
+        while (pendingFiles.getAsInt() > MAX_PENDING_FILES) {
+            try {
+                Thread.sleep(THROTTLE_SLEEP);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 单个映射组的扫描进度，所有目录任务完成后输出汇总
+     */
+    private static class ScanProgress {
+        private final MappingGroup group;
+        private final long startTime = System.currentTimeMillis();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicLong found = new AtomicLong();
+        private final AtomicLong submitted = new AtomicLong();
+
+        ScanProgress(MappingGroup group) {
+            this.group = group;
+        }
+
+        void directoryDone() {
+            if (outstanding.decrementAndGet() == 0) {
+                log.info("Backlog scan of {} finished in {} ms: {} matching files, {} submitted for processing",
+                    group.getSourcePath(), System.currentTimeMillis() - startTime, found.get(), submitted.get());
+            }
+        }
+    }
+}
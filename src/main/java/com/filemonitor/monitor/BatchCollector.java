@@ -0,0 +1,155 @@
+package com.filemonitor.monitor;
+
+import com.filemonitor.config.MonitorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * 小文件攒批
+ * 按映射收集待上传的小文件，文件数或总大小达到上限、或第一个文件入批后等待超过上限时，整批交给上传
+ */
+class BatchCollector {
+    private static final Logger log = LoggerFactory.getLogger(BatchCollector.class);
+    private static final long MIN_CHECK_INTERVAL = 100;
+
+    private final int maxFiles;
+    private final long maxBytes;
+    private final long maxDelay;
+    private final BiConsumer<MonitorConfig.FileMapping, List<Member>> flusher;
+    private final Map<String, Batch> batches = new HashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    BatchCollector(MonitorConfig monitorConfig, BiConsumer<MonitorConfig.FileMapping, List<Member>> flusher) {
+        this.maxFiles = Math.max(1, monitorConfig.getBatchMaxFiles());
+        this.maxBytes = monitorConfig.getBatchMaxBytes();
+        this.maxDelay = monitorConfig.getBatchMaxDelay();
+        this.flusher = flusher;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "batch-collector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(MIN_CHECK_INTERVAL, maxDelay / 4);
+        scheduler.scheduleWithFixedDelay(this::flushExpired, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 只有小于单批上限的文件才攒批，更大的文件单独上传
+     */
+    boolean accepts(long fileSize) {
+        return fileSize < maxBytes;
+    }
+
+    void add(File file, MonitorConfig.FileMapping mapping, long lastModified, long fileSize) {
+        List<Member> full = null;
+        synchronized (this) {
+            Batch batch = batches.computeIfAbsent(mapping.getKey(), key -> new Batch(mapping));
+            Member previous = batch.members.put(file.getAbsolutePath(), new Member(file, lastModified, fileSize));
+            batch.bytes += fileSize - (previous == null ? 0 : previous.size);
+            if (batch.members.size() >= maxFiles || batch.bytes >= maxBytes) {
+                batches.remove(mapping.getKey());
+                full = new ArrayList<>(batch.members.values());
+            }
+        }
+        if (full != null) {
+            flusher.accept(mapping, full);
+        }
+    }
+
+    synchronized int getPendingCount() {
+        int count = 0;
+        for (Batch batch : batches.values()) {
+            count += batch.members.size();
+        }
+        return count;
+    }
+
+    /**
+     * 停止攒批，尚未发送的文件按映射交给remaining（由调用方转入重试队列持久化），不会丢失
+     */
+    void shutdown(BiConsumer<MonitorConfig.FileMapping, List<Member>> remaining) {
+        scheduler.shutdownNow();
+        List<Batch> unsent;
+        synchronized (this) {
+            unsent = new ArrayList<>(batches.values());
+            batches.clear();
+        }
+        for (Batch batch : unsent) {
+            log.info("Deferring {} batched files for {} not yet uploaded", batch.members.size(),
+                batch.mapping.getTargetPath());
+            remaining.accept(batch.mapping, new ArrayList<>(batch.members.values()));
+        }
+    }
+
+    private void flushExpired() {
+        List<Batch> expired = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Iterator<Batch> it = batches.values().iterator();
+            while (it.hasNext()) {
+                Batch batch = it.next();
+                if (now - batch.created >= maxDelay) {
+                    it.remove();
+                    expired.add(batch);
+                }
+            }
+        }
+        for (Batch batch : expired) {
+            try {
+                flusher.accept(batch.mapping, new ArrayList<>(batch.members.values()));
+            } catch (Exception e) {
+                log.error("Error flushing batch for {}: {}", batch.mapping.getTargetPath(), e.getMessage(), e);
+            }
+        }
+    }
+
+    private static class Batch {
+        private final MonitorConfig.FileMapping mapping;
+        private final long created = System.currentTimeMillis();
+        private final Map<String, Member> members = new LinkedHashMap<>();
+        private long bytes;
+
+        Batch(MonitorConfig.FileMapping mapping) {
+            this.mapping = mapping;
+        }
+    }
+
+    /**
+     * 批中的文件及入批时的元数据
+     */
+    static class Member {
+        private final File file;
+        private final long lastModified;
+        private final long size;
+
+        Member(File file, long lastModified, long size) {
+            this.file = file;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        File getFile() {
+            return file;
+        }
+
+        long getLastModified() {
+            return lastModified;
+        }
+
+        long getSize() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package com.filemonitor.monitor;
+
+import com.filemonitor.config.MonitorConfig;
+import com.filemonitor.metrics.LatencyHistogram;
+import com.filemonitor.metrics.MetricsRegistry;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * 处理线程池的任务队列，按映射和文件大小公平调度
+ * 任务按文件大小分入若干通道（lane），每个通道内每个映射一个FIFO队列。出队时先按通道权重、
+ * 再按映射权重做平滑加权轮询，一个映射的突发文件或几个超大文件不会让其他映射的小文件长时间排队。
+ * 映射有并发上限时，达到上限的映射暂不出队；最小通道之外的任务最多占用除一个以外的全部线程，
+ * 总有一个线程留给小文件。
+ *
+ * 只接受task()创建的任务，线程池必须预先启动全部核心线程，否则任务会绕过队列直接执行；
+ * 调整线程数的间隙里绕过队列的任务照常执行，只是不受公平调度和并发上限约束
+ */
+class FairTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    private final int capacity;
+    private final long[] laneThresholds;
+    private final int[] laneWeights;
+    private final int defaultMaxConcurrent;
+    private final MetricsRegistry metrics;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<String, MappingQueue> mappings = new LinkedHashMap<>();
+    private Set<String> retained;   // 当前配置中的映射，null表示尚未限定
+    private final int[] laneCurrent;
+    private final int[] laneRunning;
+    private int count;
+    private int running;
+    private int waiting;   // 正在take/poll中等待的线程数
+
+    /**
+     * @param laneThresholds 通道的文件大小上界（不含），升序；最后一个通道不设上界
+     * @param laneWeights 各通道的权重，比上界多一个
+     * @param defaultMaxConcurrent 映射未设置并发上限时的上限，0表示不限
+     */
+    FairTaskQueue(int capacity, long[] laneThresholds, int[] laneWeights, int defaultMaxConcurrent,
+                  MetricsRegistry metrics) {
+        if (laneWeights.length != laneThresholds.length + 1) {
+            throw new IllegalArgumentException("Expected " + (laneThresholds.length + 1) + " lane weights but got "
+                + laneWeights.length);
+        }
+        for (int i = 1; i < laneThresholds.length; i++) {
+            if (laneThresholds[i] <= laneThresholds[i - 1]) {
+                throw new IllegalArgumentException("Lane thresholds must be ascending");
+            }
+        }
+        this.capacity = capacity;
+        this.laneThresholds = laneThresholds.clone();
+        this.laneWeights = laneWeights.clone();
+        for (int i = 0; i < this.laneWeights.length; i++) {
+            this.laneWeights[i] = Math.max(1, this.laneWeights[i]);
+        }
+        this.defaultMaxConcurrent = defaultMaxConcurrent;
+        this.metrics = metrics;
+        this.laneCurrent = new int[laneWeights.length];
+        this.laneRunning = new int[laneWeights.length];
+    }
+
+    /**
+     * 创建可提交到线程池的任务
+     * @param size 任务要上传的字节数，决定所在通道
+     */
+    Task task(MonitorConfig.FileMapping mapping, long size, Runnable body) {
+        int lane = 0;
+        while (lane < laneThresholds.length && size >= laneThresholds[lane]) {
+            lane++;
+        }
+        return new Task(mapping, lane, body);
+    }
+
+    /**
+     * 映射文件重新加载后调用：不在配置中的映射的队列在其任务全部结束后删除，指标一并注销
+     */
+    void retainMappings(Collection<MonitorConfig.FileMapping> current) {
+        lock.lock();
+        try {
+            retained = new HashSet<>();
+            current.forEach(mapping -> retained.add(mapping.getKey()));
+            for (MappingQueue queue : new ArrayList<>(mappings.values())) {
+                dropIfIdle(queue);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 已不在配置中的映射没有排队和运行中的任务时删除其队列，调用方持有锁
+     */
+    private void dropIfIdle(MappingQueue queue) {
+        if (retained == null || retained.contains(queue.key) || queue.pending > 0 || queue.running > 0) {
+            return;
+        }
+        mappings.remove(queue.key);
+        queue.unregister();
+    }
+
+    @Override
+    public boolean offer(Runnable runnable) {
+        if (!(runnable instanceof Task)) {
+            throw new IllegalArgumentException("Only tasks created by this queue can be scheduled");
+        }
+        Task task = (Task) runnable;
+        lock.lock();
+        try {
+            if (count >= capacity) {
+                return false;
+            }
+            MappingQueue queue = mappings.computeIfAbsent(task.mapping.getKey(), key -> new MappingQueue(task.mapping));
+            queue.update(task.mapping);
+            task.enqueuedAt = System.currentTimeMillis();
+            queue.lanes[task.lane].add(task);
+            queue.pending++;
+            count++;
+            changed.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable runnable) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count >= capacity) {
+                changed.await();
+            }
+            offer(runnable);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable runnable, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = changed.awaitNanos(nanos);
+            }
+            return offer(runnable);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        waiting++;
+        try {
+            Task task;
+            while ((task = select()) == null) {
+                changed.await();
+            }
+            return task;
+        } finally {
+            waiting--;
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        waiting++;
+        try {
+            Task task;
+            while ((task = select()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = changed.awaitNanos(nanos);
+            }
+            return task;
+        } finally {
+            waiting--;
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return select();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 选出下一个任务并计为运行中，没有可以运行的任务时返回null，调用方持有锁
+     * 通道和映射都用平滑加权轮询：每轮各候选加上自己的权重，取当前值最大者，被选中者减去候选权重之和
+     */
+    private Task select() {
+        if (count == 0) {
+            return null;
+        }
+        int lane = -1;
+        int totalWeight = 0;
+        for (int i = 0; i < laneWeights.length; i++) {
+            if (!laneAvailable(i)) {
+                continue;
+            }
+            laneCurrent[i] += laneWeights[i];
+            totalWeight += laneWeights[i];
+            if (lane < 0 || laneCurrent[i] > laneCurrent[lane]) {
+                lane = i;
+            }
+        }
+        if (lane < 0) {
+            return null;
+        }
+        laneCurrent[lane] -= totalWeight;
+
+        MappingQueue selected = null;
+        totalWeight = 0;
+        for (MappingQueue queue : mappings.values()) {
+            if (queue.lanes[lane].isEmpty() || queue.atLimit()) {
+                continue;
+            }
+            queue.current[lane] += queue.weight;
+            totalWeight += queue.weight;
+            if (selected == null || queue.current[lane] > selected.current[lane]) {
+                selected = queue;
+            }
+        }
+        selected.current[lane] -= totalWeight;
+
+        Task task = selected.lanes[lane].poll();
+        task.selected = true;
+        selected.pending--;
+        selected.running++;
+        laneRunning[lane]++;
+        running++;
+        count--;
+        selected.queueWait.recordSince(task.enqueuedAt);
+        changed.signalAll();
+        return task;
+    }
+
+    /**
+     * 通道中有未达并发上限的映射的任务；最小通道之外的通道还要保证运行后至少留一个线程
+     */
+    private boolean laneAvailable(int lane) {
+        boolean ready = false;
+        for (MappingQueue queue : mappings.values()) {
+            if (!queue.lanes[lane].isEmpty() && !queue.atLimit()) {
+                ready = true;
+                break;
+            }
+        }
+        if (!ready || lane == 0) {
+            return ready;
+        }
+        int workers = waiting + running;
+        int others = running - laneRunning[0];
+        return workers <= 1 || others + 1 < workers;
+    }
+
+    /**
+     * 任务执行结束，释放select()计入的运行名额
+     * 线程池在调整核心线程数期间可能不经队列直接执行任务，这样的任务没有计数，不做处理
+     */
+    private void finished(Task task) {
+        if (!task.selected) {
+            return;
+        }
+        lock.lock();
+        try {
+            MappingQueue queue = mappings.get(task.mapping.getKey());
+            queue.running--;
+            laneRunning[task.lane]--;
+            running--;
+            dropIfIdle(queue);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            for (MappingQueue queue : mappings.values()) {
+                for (ArrayDeque<Task> tasks : queue.lanes) {
+                    if (!tasks.isEmpty()) {
+                        return tasks.peek();
+                    }
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof Task)) {
+            return false;
+        }
+        Task task = (Task) o;
+        lock.lock();
+        try {
+            MappingQueue queue = mappings.get(task.mapping.getKey());
+            if (queue == null || !queue.lanes[task.lane].remove(task)) {
+                return false;
+            }
+            queue.pending--;
+            count--;
+            changed.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target, int maxElements) {
+        lock.lock();
+        try {
+            int drained = 0;
+            for (MappingQueue queue : mappings.values()) {
+                for (ArrayDeque<Task> tasks : queue.lanes) {
+                    while (drained < maxElements && !tasks.isEmpty()) {
+                        target.add(tasks.poll());
+                        queue.pending--;
+                        count--;
+                        drained++;
+                    }
+                }
+            }
+            changed.signalAll();
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前排队任务的快照，按映射和通道顺序
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            List<Runnable> snapshot = new ArrayList<>(count);
+            for (MappingQueue queue : mappings.values()) {
+                for (ArrayDeque<Task> tasks : queue.lanes) {
+                    snapshot.addAll(tasks);
+                }
+            }
+            return snapshot.iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 一个映射的排队状态，指标按映射名导出
+     */
+    private class MappingQueue {
+        private final String key;
+        private final String name;
+        private final ArrayDeque<Task>[] lanes;
+        private final int[] current;
+        private final LatencyHistogram queueWait;
+        private int weight;
+        private int maxConcurrent;
+        private volatile int pending;
+        private volatile int running;
+        private final LongSupplier pendingGauge = () -> pending;
+        private final LongSupplier runningGauge = () -> running;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        MappingQueue(MonitorConfig.FileMapping mapping) {
+            this.lanes = new ArrayDeque[laneWeights.length];
+            for (int i = 0; i < lanes.length; i++) {
+                lanes[i] = new ArrayDeque<>();
+            }
+            this.current = new int[laneWeights.length];
+            this.key = mapping.getKey();
+            this.name = mapping.getName();
+            this.queueWait = metrics.histogram("queue.wait." + name);
+            metrics.gauge("queue.pending." + name, pendingGauge);
+            metrics.gauge("queue.running." + name, runningGauge);
+        }
+
+        /**
+         * 注销指标；同名的映射仍在（重新加载时换了定义）时保留共用的直方图
+         */
+        void unregister() {
+            metrics.removeGauge("queue.pending." + name, pendingGauge);
+            metrics.removeGauge("queue.running." + name, runningGauge);
+            if (mappings.values().stream().noneMatch(queue -> queue.name.equals(name))) {
+                metrics.removeHistogram("queue.wait." + name, queueWait);
+            }
+        }
+
+        /**
+         * 映射文件重新加载后以最新的映射配置为准
+         */
+        void update(MonitorConfig.FileMapping mapping) {
+            this.weight = Math.max(1, mapping.getWeight());
+            this.maxConcurrent = mapping.getMaxConcurrent() > 0 ? mapping.getMaxConcurrent() : defaultMaxConcurrent;
+        }
+
+        boolean atLimit() {
+            return maxConcurrent > 0 && running >= maxConcurrent;
+        }
+    }
+
+    /**
+     * 线程池中的一个任务，执行结束后通知队列释放所在映射的并发名额
+     */
+    final class Task implements Runnable {
+        private final MonitorConfig.FileMapping mapping;
+        private final int lane;
+        private final Runnable body;
+        private long enqueuedAt;
+        private boolean selected;   // 经select()出队并计入运行数，由取出任务的工作线程写入和读取
+
+        private Task(MonitorConfig.FileMapping mapping, int lane, Runnable body) {
+            this.mapping = mapping;
+            this.lane = lane;
+            this.body = body;
+        }
+
+        @Override
+        public void run() {
+            try {
+                body.run();
+            } finally {
+                finished(this);
+            }
+        }
+    }
+}
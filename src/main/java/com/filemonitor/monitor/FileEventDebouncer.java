@@ -0,0 +1,141 @@
+package com.filemonitor.monitor;
+
+import com.filemonitor.config.MonitorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * 文件事件去抖
+ * 按文件路径和映射合并事件，文件在静默窗口内没有新事件才交给下游处理；
+ * 一个文件匹配多个映射时各映射分别去抖、分别处理。
+ * 文件处理中再次收到事件时只做标记，处理完成后再重新排队，不会中断正在进行的上传
+ */
+public class FileEventDebouncer {
+    private static final Logger log = LoggerFactory.getLogger(FileEventDebouncer.class);
+
+    private final long quietWindow;
+    private final BiConsumer<File, MonitorConfig.FileMapping> dispatcher;
+    private final Map<String, PendingEvent> events = new HashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    public FileEventDebouncer(long quietWindow, BiConsumer<File, MonitorConfig.FileMapping> dispatcher) {
+        this.quietWindow = quietWindow;
+        this.dispatcher = dispatcher;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "file-event-debouncer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 记录一次文件事件
+     */
+    public void onEvent(File file, MonitorConfig.FileMapping mapping) {
+        String path = file.getAbsolutePath();
+        String key = key(file, mapping);
+        synchronized (this) {
+            PendingEvent event = events.get(key);
+            if (event == null) {
+                event = new PendingEvent(file, mapping);
+                events.put(key, event);
+                schedule(event, quietWindow);
+                return;
+            }
+            event.mapping = mapping;
+            event.lastEvent = System.currentTimeMillis();
+            if (event.inFlight) {
+                event.dirty = true;
+                log.debug("File {} changed while being processed, will re-queue after completion", path);
+            }
+        }
+    }
+
+    /**
+     * 下游处理结束（无论成功与否）时调用，处理期间有新事件则重新排队
+     */
+    public void complete(File file, MonitorConfig.FileMapping mapping) {
+        String key = key(file, mapping);
+        synchronized (this) {
+            PendingEvent event = events.get(key);
+            if (event == null) {
+                return;
+            }
+            if (event.dirty) {
+                event.inFlight = false;
+                event.dirty = false;
+                schedule(event, remaining(event));
+            } else {
+                events.remove(key);
+            }
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return events.size();
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void fire(PendingEvent event) {
+        synchronized (this) {
+            if (event.inFlight || events.get(key(event.file, event.mapping)) != event) {
+                return;
+            }
+            long remaining = remaining(event);
+            if (remaining > 0) {
+                schedule(event, remaining);
+                return;
+            }
+            event.inFlight = true;
+        }
+        try {
+            dispatcher.accept(event.file, event.mapping);
+        } catch (Exception e) {
+            log.error("Error dispatching file {}: {}", event.file.getPath(), e.getMessage(), e);
+            complete(event.file, event.mapping);
+        }
+    }
+
+    /**
+     * 重新加载后内容相同的映射是新的对象，按映射的键区分，不按对象
+     */
+    private static String key(File file, MonitorConfig.FileMapping mapping) {
+        return mapping.getKey() + "|" + file.getAbsolutePath();
+    }
+
+    private long remaining(PendingEvent event) {
+        return event.lastEvent + quietWindow - System.currentTimeMillis();
+    }
+
+    private void schedule(PendingEvent event, long delay) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        scheduler.schedule(() -> fire(event), Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    private static class PendingEvent {
+        private final File file;
+        private MonitorConfig.FileMapping mapping;
+        private long lastEvent;
+        private boolean inFlight;  // 已交给下游，尚未完成
+        private boolean dirty;     // 处理期间收到了新事件
+
+        PendingEvent(File file, MonitorConfig.FileMapping mapping) {
+            this.file = file;
+            this.mapping = mapping;
+            this.lastEvent = System.currentTimeMillis();
+        }
+    }
+}
@@ -1,19 +1,38 @@
 package com.filemonitor.monitor;
 
 import com.filemonitor.config.MonitorConfig;
-import com.filemonitor.sftp.SftpService;
+import com.filemonitor.metrics.LatencyHistogram;
+import com.filemonitor.metrics.MetricsRegistry;
+import com.filemonitor.sftp.DeltaResult;
+import com.filemonitor.sftp.DestinationBusyException;
+import com.filemonitor.sftp.SftpDestinations;
 import com.filemonitor.persistence.FileRecordService;
+import com.filemonitor.persistence.PendingTransferStore;
+import com.filemonitor.util.BlockSignatures;
 import com.filemonitor.util.FileStabilityChecker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.commons.io.monitor.FileAlterationListener;
+import org.apache.commons.io.monitor.FileAlterationListenerAdaptor;
 import org.apache.commons.io.monitor.FileAlterationMonitor;
 import org.apache.commons.io.monitor.FileAlterationObserver;
 
 import java.io.File;
-import java.util.concurrent.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
 /**
  * 文件监控服务
@@ -23,21 +42,52 @@ public class FileMonitorService {
     private static final Logger log = LoggerFactory.getLogger(FileMonitorService.class);
 
     private static final long LARGE_FILE_THRESHOLD = 100 * 1024 * 1024; // 100MB
+    private static final long DELTA_MIN_SIZE = 1024 * 1024;  // 更小的文件整体上传
+    private static final String PENDING_QUEUE_SUFFIX = ".pending";
+    // 不能可靠提供inotify事件的文件系统，auto模式下使用轮询
+    private static final List<String> POLLING_FILE_SYSTEMS = Arrays.asList(
+        "nfs", "nfs4", "cifs", "smbfs", "smb3", "fuse.sshfs", "9p");
     private final MonitorConfig monitorConfig;
-    private final SftpService sftpService;
+    private final SftpDestinations destinations;
     private final FileRecordService fileRecordService;
     private final ExecutorService executorService;
-    // 用于跟踪正在处理的文件任务
-    private final Map<String, Future<?>> pendingTasks = new ConcurrentHashMap<>();
+    private final FairTaskQueue taskQueue;
+    private final WorkerPoolTuner poolTuner;
+    private final FileStabilityChecker stabilityChecker;
+    // 按文件合并事件，并跟踪正在处理的文件
+    private final FileEventDebouncer eventDebouncer;
+    private final BacklogScanner backlogScanner;
+    private final UploadRetryScheduler retryScheduler;
+    private final BatchCollector batchCollector;
+    // 文件首次事件的时间，用于统计事件到上传完成的耗时
+    private final Map<String, Long> eventTimes = new ConcurrentHashMap<>();
+    // 正在后台上传的镜像目的地（目的地名|文件路径），同一文件不会同时向同一目的地上传两次
+    private final Set<String> mirrorsInFlight = ConcurrentHashMap.newKeySet();
+    private final LongAdder receivedEvents;
+    private final LongAdder uploadedFiles;
+    private final LongAdder failedFiles;
+    private final LongAdder skippedFiles;
+    private final LongAdder deferredFiles;
+    private final LongAdder uploadedBatches;
+    private final LongAdder spilledFiles;
+    private final LatencyHistogram eventToUpload;
+    private final LatencyHistogram stabilityWait;
     private final long pollingInterval;
+    private FileAlterationMonitor pollingMonitor;
+    private boolean pollingStarted;
+    private WatchServiceMonitor watchServiceMonitor;
+    private FileAlterationMonitor mappingFileMonitor;
+    // 正在监控的源目录及其当前的映射组，映射文件重新加载时整体替换组
+    private final Map<String, MappingGroup> activeGroups = new ConcurrentHashMap<>();
+    private final Map<String, FileAlterationObserver> pollingObservers = new HashMap<>();
 
-    public FileMonitorService(MonitorConfig monitorConfig, SftpService sftpService, FileRecordService fileRecordService) {
+    public FileMonitorService(MonitorConfig monitorConfig, SftpDestinations destinations, FileRecordService fileRecordService,
+                              MetricsRegistry metrics) {
         this.monitorConfig = monitorConfig;
-        this.sftpService = sftpService;
+        this.destinations = destinations;
         this.fileRecordService = fileRecordService;
         this.pollingInterval = monitorConfig.getPollingInterval();
         
-        // 使用固定的线程池配置
         ThreadFactory threadFactory = new ThreadFactory() {
             private final AtomicInteger counter = new AtomicInteger(1);
             @Override
@@ -48,86 +98,323 @@ public class FileMonitorService {
             }
         };
 
-        this.executorService = new ThreadPoolExecutor(
-            4, 8, 60L, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<>(1000),
+        // 线程数由调整器在核心线程数上增减；队列满时拒绝提交，由提交方把文件转入重试队列，不在提交线程上执行上传。
+        // 核心线程全部预先启动且不超时回收，任务总是经过公平队列调度，不会在新建线程时直接执行
+        int minThreads = Math.max(1, monitorConfig.getWorkerMinThreads());
+        this.taskQueue = new FairTaskQueue(monitorConfig.getWorkerQueueCapacity(), monitorConfig.getLaneThresholds(),
+            monitorConfig.getLaneWeights(), monitorConfig.getMappingMaxConcurrent(), metrics);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            minThreads, minThreads, 60L, TimeUnit.SECONDS,
+            taskQueue,
             threadFactory,
-            new ThreadPoolExecutor.CallerRunsPolicy()
+            new ThreadPoolExecutor.AbortPolicy()
         );
+        executor.prestartAllCoreThreads();
+        this.executorService = executor;
+        this.poolTuner = new WorkerPoolTuner(executor, minThreads, monitorConfig.getWorkerMaxThreads());
+        this.stabilityChecker = new FileStabilityChecker();
+        this.eventDebouncer = new FileEventDebouncer(monitorConfig.getDebounceWindow(), this::dispatchFile);
+        this.backlogScanner = new BacklogScanner(monitorConfig.getScanThreads(), fileRecordService,
+            this::submitFileProcessing, eventDebouncer::getPendingCount);
+        this.retryScheduler = new UploadRetryScheduler(monitorConfig,
+            new PendingTransferStore(monitorConfig.getRecordFile() + PENDING_QUEUE_SUFFIX),
+            this::submitFileProcessing, this::findMapping, () -> executor.getQueue().remainingCapacity());
+        this.batchCollector = new BatchCollector(monitorConfig, this::submitBatch);
+
+        this.receivedEvents = metrics.counter("events.received");
+        this.uploadedFiles = metrics.counter("files.uploaded");
+        this.failedFiles = metrics.counter("files.failed");
+        this.skippedFiles = metrics.counter("files.skipped");
+        this.deferredFiles = metrics.counter("files.deferred");
+        this.uploadedBatches = metrics.counter("batches.uploaded");
+        this.spilledFiles = metrics.counter("executor.spilled");
+        this.eventToUpload = metrics.histogram("latency.eventToUpload");
+        this.stabilityWait = metrics.histogram("stability.wait");
+        metrics.gauge("executor.queue", () -> executor.getQueue().size());
+        metrics.gauge("executor.active", executor::getActiveCount);
+        metrics.gauge("executor.poolSize", executor::getPoolSize);
+        metrics.gauge("executor.limit", poolTuner::getLimit);
+        metrics.gauge("debouncer.pending", eventDebouncer::getPendingCount);
+        metrics.gauge("stability.pending", stabilityChecker::getPendingCount);
+        metrics.gauge("retry.pending", retryScheduler::getPendingCount);
+        metrics.gauge("batch.pending", batchCollector::getPendingCount);
     }
 
     /**
      * 启动文件监控
-     * 为每个配置的目录创建观察者并开始监控
+     * 为每个配置的目录选择监控引擎（WatchService或轮询）并开始监控，之后映射文件的修改会自动生效
      */
-    public void startMonitoring() {
+    public synchronized void startMonitoring() {
         try {
-            FileAlterationMonitor monitor = new FileAlterationMonitor(pollingInterval);
+            validateDestinations(monitorConfig.getFileMappings());
+            pollingMonitor = new FileAlterationMonitor(pollingInterval);
 
-            for (MonitorConfig.FileMapping mapping : monitorConfig.getFileMappings()) {
-                File directory = new File(mapping.getSourcePath());
-                if (!directory.exists() || !directory.isDirectory()) {
-                    log.error("Directory not found or not a directory: {}", mapping.getSourcePath());
-                    continue;
-                }
+            // 同一源目录的多个映射共用一个观察者，只扫描一次目录
+            for (MappingGroup group : MappingGroup.groupBySource(monitorConfig.getFileMappings())) {
+                attach(group);
+            }
+            startEngines();
+            log.info("File monitoring started with {} file mappings ({} watch service, {} polling)",
+                monitorConfig.getFileMappings().size(), activeGroups.size() - pollingObservers.size(),
+                pollingObservers.size());
+
+            // 继续上次未完成的重试
+            retryScheduler.start();
+            poolTuner.start();
+            watchMappingFile();
 
-                // 创建文件观察者，使用文件名模式过滤器
-                FileAlterationObserver observer = new FileAlterationObserver(
-                    directory,
-                    pathname -> pathname.getName().matches(mapping.getPattern())
-                );
+            // 实时监控已启动，存量文件在后台并行扫描
+            for (MappingGroup group : activeGroups.values()) {
+                backlogScanner.scan(group);
+            }
+        } catch (Exception e) {
+            log.error("Error starting file monitor: {}", e.getMessage(), e);
+        }
+    }
 
-                observer.addListener(createFileListener(mapping));
-                monitor.addObserver(observer);
-                log.info("Monitoring directory: {}", mapping.getSourcePath());
+    /**
+     * 重新加载映射文件，与当前配置按映射的完整定义比较
+     * 只为有变化的源目录挂上、替换或撤下监控，新增的映射（包括选项有变化的映射）做一次存量扫描；
+     * 未变化的映射保持原对象，正在进行的上传、重试队列和上传记录都不受影响。映射文件无效时保留当前配置
+     */
+    synchronized void reloadMappings() {
+        List<MonitorConfig.FileMapping> loaded;
+        try {
+            loaded = monitorConfig.readFileMappings();
+            validateDestinations(loaded);
+        } catch (Exception e) {
+            log.error("Ignoring invalid mapping file {}: {}", monitorConfig.getMappingFile(), e.getMessage());
+            return;
+        }
 
-                // 处理已存在的文件
-                processExistingFiles(directory, mapping);
+        Map<String, MonitorConfig.FileMapping> removed = new LinkedHashMap<>();
+        for (MonitorConfig.FileMapping mapping : monitorConfig.getFileMappings()) {
+            removed.put(mapping.getDefinition(), mapping);
+        }
+        List<MonitorConfig.FileMapping> mappings = new ArrayList<>();
+        List<MonitorConfig.FileMapping> added = new ArrayList<>();
+        for (MonitorConfig.FileMapping mapping : loaded) {
+            MonitorConfig.FileMapping existing = removed.remove(mapping.getDefinition());
+            if (existing != null) {
+                mappings.add(existing);
+            } else {
+                mappings.add(mapping);
+                added.add(mapping);
             }
+        }
+        if (added.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        monitorConfig.setFileMappings(mappings);
+        taskQueue.retainMappings(mappings);
+        destinations.retainMappings(mappings.stream().map(MonitorConfig.FileMapping::getName).collect(Collectors.toSet()));
 
-            monitor.start();
-            log.info("File monitoring started with {} file mappings", monitorConfig.getFileMappings().size());
+        Set<String> changedSources = new LinkedHashSet<>();
+        added.forEach(mapping -> changedSources.add(mapping.getSourcePath()));
+        removed.values().forEach(mapping -> changedSources.add(mapping.getSourcePath()));
+        Map<String, MappingGroup> groups = new LinkedHashMap<>();
+        for (MappingGroup group : MappingGroup.groupBySource(mappings)) {
+            groups.put(group.getSourcePath(), group);
+        }
+        for (String sourcePath : changedSources) {
+            MappingGroup current = activeGroups.get(sourcePath);
+            MappingGroup group = groups.get(sourcePath);
+            if (current == null) {
+                attach(group);
+            } else if (group == null) {
+                detach(current);
+            } else {
+                replace(current, group);
+            }
+        }
+        try {
+            startEngines();
         } catch (Exception e) {
             log.error("Error starting file monitor: {}", e.getMessage(), e);
         }
+        log.info("Reloaded file mappings: {} added, {} removed, {} in total",
+            added.size(), removed.size(), mappings.size());
+
+        // 只扫描新增映射的存量文件
+        for (MappingGroup group : MappingGroup.groupBySource(added)) {
+            if (activeGroups.containsKey(group.getSourcePath())) {
+                backlogScanner.scan(group);
+            }
+        }
     }
 
     /**
-     * 处理目录中已存在的文件
+     * 开始监控一个源目录，目录不存在时跳过
+     * 轮询观察者按源目录建立，每次都查找该目录当前的映射组，组内映射变化时不需要重建观察者
      */
-    private void processExistingFiles(File directory, MonitorConfig.FileMapping mapping) {
-        File[] existingFiles = directory.listFiles(file -> 
-            file.isFile() && file.getName().matches(mapping.getPattern())
-        );
+    private void attach(MappingGroup group) {
+        String sourcePath = group.getSourcePath();
+        File directory = new File(sourcePath);
+        if (!directory.exists() || !directory.isDirectory()) {
+            log.error("Directory not found or not a directory: {}", sourcePath);
+            return;
+        }
+        activeGroups.put(sourcePath, group);
 
-        if (existingFiles != null) {
-            log.info("Found {} existing files in directory: {}", 
-                existingFiles.length, directory.getPath());
+        if (useNativeEngine(directory) && registerNative(group)) {
+            log.info("Monitoring directory with watch service: {}", sourcePath);
+            return;
+        }
+        // 创建文件观察者，使用合并后的文件名模式过滤器
+        FileAlterationObserver observer = new FileAlterationObserver(directory, pathname -> {
+            MappingGroup current = activeGroups.get(sourcePath);
+            return current != null && current.accept(pathname.getName());
+        });
+        observer.addListener(createFileListener(sourcePath));
+        if (pollingStarted) {
+            // 运行中挂上的观察者先记下目录现状，已有的文件交给存量扫描
+            try {
+                observer.initialize();
+            } catch (Exception e) {
+                activeGroups.remove(sourcePath);
+                log.error("Error monitoring directory {}: {}", sourcePath, e.getMessage(), e);
+                return;
+            }
+        }
+        pollingMonitor.addObserver(observer);
+        pollingObservers.put(sourcePath, observer);
+        log.info("Monitoring directory: {} ({} mappings)", sourcePath, group.getMappings().size());
+    }
 
-            for (File file : existingFiles) {
-                if (!fileRecordService.isFileProcessed(file)) {
-                    log.info("Processing existing file: {}", file.getPath());
-                    submitFileProcessing(file, mapping);
-                } else {
-                    log.debug("Skipping already processed file: {}", file.getPath());
+    /**
+     * 源目录的映射有变化：轮询观察者直接使用新的映射组；WatchService先注册新组再注销旧组，切换期间不漏事件
+     */
+    private void replace(MappingGroup current, MappingGroup group) {
+        activeGroups.put(group.getSourcePath(), group);
+        if (!pollingObservers.containsKey(group.getSourcePath())) {
+            try {
+                watchServiceMonitor.register(group);
+            } catch (IOException e) {
+                log.error("Error updating watch service for {}: {}", group.getSourcePath(), e.getMessage(), e);
+            }
+            watchServiceMonitor.unregister(current);
+        }
+        log.info("Updated mappings of directory: {} ({} mappings)", group.getSourcePath(), group.getMappings().size());
+    }
+
+    /**
+     * 停止监控源目录，已提交的文件照常处理
+     */
+    private void detach(MappingGroup group) {
+        activeGroups.remove(group.getSourcePath());
+        FileAlterationObserver observer = pollingObservers.remove(group.getSourcePath());
+        if (observer != null) {
+            pollingMonitor.removeObserver(observer);
+        } else if (watchServiceMonitor != null) {
+            watchServiceMonitor.unregister(group);
+        }
+        log.info("Stopped monitoring directory: {}", group.getSourcePath());
+    }
+
+    /**
+     * 启动尚未运行的监控引擎，已运行的保持不变
+     */
+    private void startEngines() throws Exception {
+        if (!pollingStarted && !pollingObservers.isEmpty()) {
+            pollingMonitor.start();
+            pollingStarted = true;
+        }
+        if (watchServiceMonitor != null) {
+            watchServiceMonitor.start();
+        }
+    }
+
+    /**
+     * 定期检查映射文件，修改后重新加载
+     */
+    private void watchMappingFile() throws Exception {
+        long interval = monitorConfig.getMappingReloadInterval();
+        if (interval <= 0) {
+            return;
+        }
+        File mappingFile = new File(monitorConfig.getMappingFile()).getAbsoluteFile();
+        FileAlterationObserver observer = new FileAlterationObserver(mappingFile.getParentFile(),
+            pathname -> pathname.getName().equals(mappingFile.getName()));
+        observer.addListener(new FileAlterationListenerAdaptor() {
+            @Override
+            public void onFileChange(File file) {
+                reloadMappings();
+            }
+
+            @Override
+            public void onFileCreate(File file) {
+                reloadMappings();
+            }
+        });
+        mappingFileMonitor = new FileAlterationMonitor(interval, observer);
+        mappingFileMonitor.start();
+    }
+
+    /**
+     * 映射引用的镜像目的地必须已在目的地配置文件中定义
+     */
+    private void validateDestinations(List<MonitorConfig.FileMapping> mappings) {
+        for (MonitorConfig.FileMapping mapping : mappings) {
+            for (MonitorConfig.Destination mirror : mapping.getMirrors()) {
+                if (!destinations.getNames().contains(mirror.getName())) {
+                    throw new IllegalArgumentException("Mapping " + mapping.getKey()
+                        + " refers to unknown destination " + mirror.getName());
                 }
             }
         }
     }
 
     /**
-     * 创建文件变化监听器
+     * 根据配置的引擎及目录所在文件系统决定是否使用WatchService
+     */
+    private boolean useNativeEngine(File directory) {
+        String engine = monitorConfig.getMonitorEngine();
+        if (MonitorConfig.ENGINE_NATIVE.equalsIgnoreCase(engine)) {
+            return true;
+        }
+        if (!MonitorConfig.ENGINE_AUTO.equalsIgnoreCase(engine)) {
+            return false;
+        }
+        try {
+            String type = Files.getFileStore(directory.toPath()).type();
+            if (POLLING_FILE_SYSTEMS.contains(type.toLowerCase())) {
+                log.info("Directory {} is on {} file system, falling back to polling", directory, type);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            log.warn("Unable to determine file system of {}, falling back to polling: {}", directory, e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean registerNative(MappingGroup group) {
+        try {
+            if (watchServiceMonitor == null) {
+                watchServiceMonitor = new WatchServiceMonitor(this::submitFileProcessing);
+            }
+            watchServiceMonitor.register(group);
+            return true;
+        } catch (IOException e) {
+            log.warn("Unable to register watch service for {}, falling back to polling: {}",
+                group.getSourcePath(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 创建文件变化监听器，事件交给源目录当前的映射组
      */
-    private FileAlterationListener createFileListener(MonitorConfig.FileMapping mapping) {
+    private FileAlterationListener createFileListener(String sourcePath) {
         return new FileAlterationListener() {
             @Override
             public void onFileChange(File file) {
-                submitFileProcessing(file, mapping);
+                submitFileProcessing(file, activeGroups.get(sourcePath));
             }
 
             @Override
             public void onFileCreate(File file) {
-                submitFileProcessing(file, mapping);
+                submitFileProcessing(file, activeGroups.get(sourcePath));
             }
 
             // 其他方法默认空实现
@@ -141,66 +428,487 @@ public class FileMonitorService {
     }
 
     /**
-     * 提交文件处理任务到线程池
+     * 把文件提交给组内所有匹配的映射
+     */
+    private void submitFileProcessing(File file, MappingGroup group) {
+        if (group == null) {
+            return;
+        }
+        for (MonitorConfig.FileMapping mapping : group.matching(file.getName())) {
+            submitFileProcessing(file, mapping);
+        }
+    }
+
+    /**
+     * 提交文件处理
+     * 同一文件的事件先经过去抖合并，静默窗口过后才会真正进入处理流程
      */
     private void submitFileProcessing(File file, MonitorConfig.FileMapping mapping) {
-        String fileKey = file.getAbsolutePath();
-        
-        // 如果文件正在处理中，取消之前的任务
-        Future<?> existingTask = pendingTasks.remove(fileKey);
-        if (existingTask != null && !existingTask.isDone()) {
-            existingTask.cancel(true);
-            log.debug("Cancelled existing task for file: {}", fileKey);
+        receivedEvents.increment();
+        eventTimes.putIfAbsent(mapping.getKey() + "|" + file.getAbsolutePath(), System.currentTimeMillis());
+        eventDebouncer.onEvent(file, mapping);
+    }
+
+    /**
+     * 分发去抖后的文件
+     * 大文件先交给稳定性检查器等待写入完成，稳定后再进入线程池，处理线程不会因等待而阻塞
+     */
+    private void dispatchFile(File file, MonitorConfig.FileMapping mapping) {
+        if (file.length() > LARGE_FILE_THRESHOLD) {
+            log.debug("Waiting for large file {} to become stable", file.getPath());
+            long waitStart = System.currentTimeMillis();
+            stabilityChecker.whenStable(file,
+                () -> {
+                    stabilityWait.recordSince(waitStart);
+                    submitTask(file, mapping);
+                },
+                () -> complete(file, mapping, false));
+            return;
+        }
+        submitTask(file, mapping);
+    }
+
+    /**
+     * 提交文件处理任务到线程池
+     * 队列已满时文件转入重试队列，稍后在线程池有空余时重新提交，提交线程不会被阻塞
+     */
+    private void submitTask(File file, MonitorConfig.FileMapping mapping) {
+        try {
+            executorService.execute(taskQueue.task(mapping, file.length(), () -> handleFileChange(file, mapping)));
+        } catch (RejectedExecutionException e) {
+            spill(file, mapping);
+            complete(file, mapping, false);
         }
+    }
 
-        // 提交新的处理任务
-        Future<?> future = executorService.submit(() -> handleFileChange(file, mapping));
-        pendingTasks.put(fileKey, future);
+    private void spill(File file, MonitorConfig.FileMapping mapping) {
+        if (executorService.isShutdown()) {
+            log.warn("File processing rejected for {}: service is shutting down", file.getPath());
+            return;
+        }
+        spilledFiles.increment();
+        retryScheduler.onOverloaded(file, mapping);
     }
 
     /**
      * 处理文件变化
-     * 包括文件稳定性检查、SFTP传输和记录保存
+     * 包括SFTP传输和记录保存（大文件在提交前已完成稳定性检查）；
+     * 映射有多个目的地时只上传尚未完成的目的地，每个目的地完成后立即单独记录；
+     * 增量模式下已有上传记录的目的地先尝试只上传变化的部分
      */
     private void handleFileChange(File file, MonitorConfig.FileMapping mapping) {
+        boolean batched = false;
+        boolean uploaded = false;
+        UploadRetryScheduler.Permit permit = null;
         try {
             String filePath = file.getAbsolutePath();
 
             // 避免重复处理
-            if (fileRecordService.isFileProcessed(file)) {
+            List<MonitorConfig.Destination> pending = pendingDestinations(file, mapping);
+            if (pending.isEmpty()) {
                 log.debug("File already processed: {}", filePath);
+                skippedFiles.increment();
+                retryScheduler.resolve(file);
+                return;
+            }
+
+            // 上传前记录元数据，上传期间文件若有变化，下次检查时会重新上传
+            long lastModified = file.lastModified();
+            long fileSize = file.length();
+
+            // 小文件攒批上传，整批完成后再结束去抖跟踪；熔断由整批上传时检查
+            if (mapping.isBatched() && batchCollector.accepts(fileSize)) {
+                batchCollector.add(file, mapping, lastModified, fileSize);
+                batched = true;
+                return;
+            }
+
+            // 远端不可用（熔断）时直接进入重试队列
+            permit = retryScheduler.acquire();
+            if (permit == null) {
+                deferredFiles.increment();
+                retryScheduler.onRejected(file, mapping);
                 return;
             }
 
-            // 对大文件进行稳定性检查
-            if (file.length() > LARGE_FILE_THRESHOLD) {
-                if (!FileStabilityChecker.isFileStable(file)) {
-                    log.debug("Large file {} is not stable yet, will retry later", filePath);
-                    return;
+            // 构建各目的地的目标路径，正在后台上传的镜像目的地本次跳过（那次上传结束后文件若已变化会重新提交）
+            String relativePath = relativePath(file, mapping);
+            Map<String, String> targets = new LinkedHashMap<>();
+            for (MonitorConfig.Destination destination : pending) {
+                if (!mirrorsInFlight.contains(inFlightKey(file, destination.getName()))) {
+                    targets.put(destination.getName(), destination.getTargetPath() + relativePath);
                 }
             }
 
-            // 构建目标路径
-            String relativePath = file.getAbsolutePath().substring(mapping.getSourcePath().length());
-            String targetPath = mapping.getTargetPath() + relativePath;
+            long uploadStart = System.currentTimeMillis();
+            Map<String, CompletableFuture<?>> uploads = new LinkedHashMap<>();
+            Map<String, String> fullTargets = new LinkedHashMap<>(targets);
+            boolean delta = mapping.isDelta() && fileSize >= DELTA_MIN_SIZE;
+            if (delta) {
+                uploadDeltas(file, mapping, fullTargets, lastModified, fileSize, uploads);
+            }
+
+            // 上传文件，同时得到文件摘要，各目的地上传完成即记录
+            if (!fullTargets.isEmpty()) {
+                destinations.uploadFile(mapping.getName(), filePath, fullTargets).forEach((destination, upload) ->
+                    uploads.put(destination, upload.thenAccept(fileHash -> recordUpload(file, destination,
+                        fullTargets.get(destination), fileHash, lastModified, fileSize, delta))));
+            }
+
+            // 主目的地完成即结束本次处理，镜像目的地在后台完成，慢的镜像不占用处理线程
+            CompletableFuture<?> primary = uploads.remove(MonitorConfig.FileMapping.PRIMARY_DESTINATION);
+            uploads.forEach((destination, upload) ->
+                trackMirror(file, mapping, destination, targets.get(destination), lastModified, upload));
+            if (primary == null) {
+                return;
+            }
+            Exception failure = awaitUpload(primary);
+            poolTuner.onUpload(fileSize, System.currentTimeMillis() - uploadStart, failure == null);
 
-            // 上传文件
-            sftpService.uploadFile(filePath, targetPath);
-            log.info("Successfully uploaded file: {} -> {}", filePath, targetPath);
-            
-            // 记录已处理的文件
-            fileRecordService.addProcessedFile(file);
+            if (failure == null) {
+                retryScheduler.onSuccess(file);
+                uploadedFiles.increment();
+                uploaded = true;
+            } else {
+                log.error("Error uploading file {} to {}: {}", filePath,
+                    targets.get(MonitorConfig.FileMapping.PRIMARY_DESTINATION), failure.getMessage(), failure);
+                onUploadFailure(file, mapping, failure);
+            }
         } catch (Exception e) {
             log.error("Error processing file {}: {}", file.getPath(), e.getMessage(), e);
+            onUploadFailure(file, mapping, e);
+        } finally {
+            retryScheduler.release(permit);
+            // 处理期间有新事件时，去抖器会在此时重新排队
+            if (!batched) {
+                complete(file, mapping, uploaded);
+            }
+        }
+    }
+
+    /**
+     * 对已有上传记录的目的地尝试增量上传，交给增量上传的目的地从targets中移除，其余留给整体上传
+     * 主目的地的增量上传在当前线程完成，不适用时与其他目的地一起整体上传；
+     * 镜像目的地的增量上传在后台进行，不适用时在后台单独整体上传，不占用处理线程
+     */
+    private void uploadDeltas(File file, MonitorConfig.FileMapping mapping, Map<String, String> targets,
+                              long lastModified, long fileSize, Map<String, CompletableFuture<?>> uploads) {
+        for (String destination : new ArrayList<>(targets.keySet())) {
+            FileRecordService.FileRecord record = fileRecordService.getRecord(file, destination);
+            if (record == null) {
+                continue;
+            }
+            String remotePath = targets.get(destination);
+            CompletableFuture<DeltaResult> upload = destinations.uploadDelta(mapping.getName(), destination, file,
+                remotePath, record.getFileSize(), record.getFileHash(),
+                fileRecordService.getSignatures(file, destination, record.getFileHash()),
+                () -> fileRecordService.removeSignatures(file, destination));
+            if (upload.isDone() && !upload.isCompletedExceptionally() && upload.join() == null) {
+                continue;
+            }
+            uploads.put(destination, upload.thenCompose(result -> {
+                if (result == null) {
+                    return destinations.uploadFile(mapping.getName(), file.getAbsolutePath(),
+                            Collections.singletonMap(destination, remotePath)).get(destination)
+                        .thenAccept(fileHash -> recordUpload(file, destination, remotePath, fileHash, lastModified,
+                            fileSize, true));
+                }
+                fileRecordService.addProcessedFile(file, destination, result.getFileHash(), lastModified, result.getLength());
+                fileRecordService.saveSignatures(file, destination, result.getSignatures());
+                log.info("Successfully uploaded {} of {} bytes of file: {} -> {}",
+                    result.getSentBytes(), result.getLength(), file.getAbsolutePath(), remotePath);
+                return CompletableFuture.completedFuture(null);
+            }));
+            targets.remove(destination);
+        }
+    }
+
+    /**
+     * 记录一个目的地的整体上传，增量模式下同时保存分块签名
+     */
+    private void recordUpload(File file, String destination, String remotePath, String fileHash, long lastModified,
+                              long fileSize, boolean delta) {
+        fileRecordService.addProcessedFile(file, destination, fileHash, lastModified, fileSize);
+        if (delta) {
+            saveSignatures(file, Collections.singletonMap(destination, fileHash));
+        }
+        log.info("Successfully uploaded file: {} -> {}", file.getAbsolutePath(), remotePath);
+    }
+
+    /**
+     * 整体上传后为增量模式生成分块签名，本地文件只读一次，内容与上传时一致的目的地才保存
+     */
+    private void saveSignatures(File file, Map<String, String> uploadedHashes) {
+        try {
+            BlockSignatures signatures = BlockSignatures.compute(file);
+            uploadedHashes.forEach((destination, fileHash) -> {
+                if (fileHash.equals(signatures.getFileHash())) {
+                    fileRecordService.saveSignatures(file, destination, signatures);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Unable to compute block signatures for {}: {}", file.getPath(), e.getMessage());
+        }
+    }
+
+    /**
+     * 尚未上传完成的目的地
+     */
+    private List<MonitorConfig.Destination> pendingDestinations(File file, MonitorConfig.FileMapping mapping) {
+        List<MonitorConfig.Destination> pending = new ArrayList<>();
+        for (MonitorConfig.Destination destination : mapping.getDestinations()) {
+            if (!fileRecordService.isFileProcessed(file, destination.getName())) {
+                pending.add(destination);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * 等待上传完成
+     * @return 失败原因，成功时为null
+     */
+    private static Exception awaitUpload(CompletableFuture<?> upload) throws InterruptedException {
+        try {
+            upload.get();
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            return cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * 在后台等待镜像目的地的上传：成功已由上传结果记录，失败时进入重试但不计入熔断，
+     * 目的地繁忙时暂存到重试队列；上传期间文件又有变化时，结束后重新提交
+     */
+    private void trackMirror(File file, MonitorConfig.FileMapping mapping, String destination, String remotePath,
+                             long lastModified, CompletableFuture<?> upload) {
+        String key = inFlightKey(file, destination);
+        mirrorsInFlight.add(key);
+        upload.whenComplete((result, error) -> {
+            mirrorsInFlight.remove(key);
+            if (error == null) {
+                if (pendingDestinations(file, mapping).isEmpty()) {
+                    retryScheduler.resolve(file);
+                }
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (cause instanceof DestinationBusyException) {
+                    log.debug("Destination {} busy, {} deferred", destination, file.getPath());
+                    retryScheduler.onOverloaded(file, mapping);
+                } else if (!file.exists()) {
+                    retryScheduler.resolve(file);
+                } else {
+                    log.error("Error uploading file {} to {}: {}", file.getPath(), remotePath, cause.getMessage(), cause);
+                    failedFiles.increment();
+                    retryScheduler.onPartialFailure(file, mapping,
+                        cause instanceof Exception ? (Exception) cause : new ExecutionException(cause));
+                }
+            }
+            if (file.exists() && file.lastModified() != lastModified) {
+                submitFileProcessing(file, mapping);
+            }
+        });
+    }
+
+    private static String inFlightKey(File file, String destination) {
+        return destination + "|" + file.getAbsolutePath();
+    }
+
+    /**
+     * 主目的地上传失败，进入重试并计入熔断，已成功的目的地不会重传
+     */
+    private void onUploadFailure(File file, MonitorConfig.FileMapping mapping, Exception error) {
+        failedFiles.increment();
+        if (!file.exists()) {
+            retryScheduler.resolve(file);
+            return;
+        }
+        retryScheduler.onFailure(file, mapping, error);
+    }
+
+    /**
+     * 整批上传到主目的地失败，一批只计一次熔断失败，各成员分别进入重试
+     */
+    private void onBatchFailure(MonitorConfig.FileMapping mapping, List<BatchCollector.Member> members, Exception error) {
+        failedFiles.add(members.size());
+        List<File> remaining = new ArrayList<>();
+        for (BatchCollector.Member member : members) {
+            if (member.getFile().exists()) {
+                remaining.add(member.getFile());
+            } else {
+                retryScheduler.resolve(member.getFile());
+            }
+        }
+        retryScheduler.onFailure(remaining, mapping, error);
+    }
+
+    /**
+     * 把攒满的一批文件交给线程池上传
+     */
+    private void submitBatch(MonitorConfig.FileMapping mapping, List<BatchCollector.Member> members) {
+        try {
+            long batchBytes = members.stream().mapToLong(BatchCollector.Member::getSize).sum();
+            executorService.execute(taskQueue.task(mapping, batchBytes, () -> uploadBatch(mapping, members)));
+        } catch (RejectedExecutionException e) {
+            for (BatchCollector.Member member : members) {
+                spill(member.getFile(), mapping);
+                complete(member.getFile(), mapping, false);
+            }
+        }
+    }
+
+    /**
+     * 整批打包上传到映射的所有目的地，每个目的地成功后逐个记录为已处理
+     */
+    private void uploadBatch(MonitorConfig.FileMapping mapping, List<BatchCollector.Member> members) {
+        boolean uploaded = false;
+        UploadRetryScheduler.Permit permit = null;
+        try {
+            permit = retryScheduler.acquire();
+            if (permit == null) {
+                deferredFiles.add(members.size());
+                members.forEach(member -> retryScheduler.onRejected(member.getFile(), mapping));
+                return;
+            }
+
+            // 每个目的地只上传尚未完成、也不在后台上传中的成员；归档内使用相对路径，由远端在目标目录下解包
+            Map<String, Map<File, String>> entries = new LinkedHashMap<>();
+            Map<String, String> directories = new LinkedHashMap<>();
+            for (MonitorConfig.Destination destination : mapping.getDestinations()) {
+                Map<File, String> files = new LinkedHashMap<>();
+                for (BatchCollector.Member member : members) {
+                    File file = member.getFile();
+                    if (!fileRecordService.isFileProcessed(file, destination.getName())
+                            && !mirrorsInFlight.contains(inFlightKey(file, destination.getName()))) {
+                        files.put(file, relativePath(file, mapping).replaceFirst("^/+", ""));
+                    }
+                }
+                if (!files.isEmpty()) {
+                    entries.put(destination.getName(), files);
+                    directories.put(destination.getName(), destination.getTargetPath());
+                }
+            }
+
+            if (entries.isEmpty()) {
+                skippedFiles.add(members.size());
+                members.forEach(member -> retryScheduler.resolve(member.getFile()));
+                return;
+            }
+
+            long uploadStart = System.currentTimeMillis();
+            Map<String, CompletableFuture<?>> uploads = new LinkedHashMap<>();
+            destinations.uploadArchive(mapping.getName(), entries, directories, mapping.isBatchCompressed())
+                .forEach((destination, upload) -> uploads.put(destination, upload.thenAccept(hashes -> {
+                    for (BatchCollector.Member member : members) {
+                        if (hashes.containsKey(member.getFile())) {
+                            fileRecordService.addProcessedFile(member.getFile(), destination, hashes.get(member.getFile()),
+                                member.getLastModified(), member.getSize());
+                        }
+                    }
+                })));
+
+            // 与单个文件相同，主目的地完成即结束，镜像目的地在后台完成
+            CompletableFuture<?> primary = uploads.remove(MonitorConfig.FileMapping.PRIMARY_DESTINATION);
+            uploads.forEach((destination, upload) -> {
+                for (BatchCollector.Member member : members) {
+                    if (entries.get(destination).containsKey(member.getFile())) {
+                        trackMirror(member.getFile(), mapping, destination, directories.get(destination),
+                            member.getLastModified(), upload);
+                    }
+                }
+            });
+            if (primary == null) {
+                return;
+            }
+            Map<File, String> sent = entries.get(MonitorConfig.FileMapping.PRIMARY_DESTINATION);
+            long batchBytes = members.stream().filter(member -> sent.containsKey(member.getFile()))
+                .mapToLong(BatchCollector.Member::getSize).sum();
+            Exception failure = awaitUpload(primary);
+            poolTuner.onUpload(batchBytes, System.currentTimeMillis() - uploadStart, failure == null);
+
+            if (failure == null) {
+                sent.keySet().forEach(retryScheduler::onSuccess);
+                uploadedFiles.add(sent.size());
+                uploadedBatches.increment();
+                uploaded = true;
+            } else {
+                log.error("Error uploading batch of {} files to {}: {}", sent.size(), mapping.getTargetPath(),
+                    failure.getMessage(), failure);
+                onBatchFailure(mapping, members.stream().filter(member -> sent.containsKey(member.getFile()))
+                    .collect(Collectors.toList()), failure);
+            }
+        } catch (Exception e) {
+            log.error("Error uploading batch of {} files to {}: {}", members.size(), mapping.getTargetPath(), e.getMessage(), e);
+            onBatchFailure(mapping, members, e);
         } finally {
-            pendingTasks.remove(file.getAbsolutePath());
+            retryScheduler.release(permit);
+            for (BatchCollector.Member member : members) {
+                complete(member.getFile(), mapping, uploaded);
+            }
+        }
+    }
+
+    /**
+     * 文件本轮处理结束：记录事件到上传完成的耗时，并通知去抖器
+     */
+    private void complete(File file, MonitorConfig.FileMapping mapping, boolean uploaded) {
+        Long eventTime = eventTimes.remove(mapping.getKey() + "|" + file.getAbsolutePath());
+        if (uploaded && eventTime != null) {
+            eventToUpload.recordSince(eventTime);
+        }
+        eventDebouncer.complete(file, mapping);
+    }
+
+    /**
+     * 文件相对于映射源目录的路径（以/开头）
+     */
+    private static String relativePath(File file, MonitorConfig.FileMapping mapping) {
+        return file.getAbsolutePath().substring(mapping.getSourcePath().length());
+    }
+
+    /**
+     * 按标识查找当前配置中的映射
+     */
+    private MonitorConfig.FileMapping findMapping(String key) {
+        for (MonitorConfig.FileMapping mapping : monitorConfig.getFileMappings()) {
+            if (mapping.getKey().equals(key)) {
+                return mapping;
+            }
         }
+        return null;
     }
 
     /**
      * 关闭服务，确保资源正确释放
      */
     public void shutdown() {
+        if (mappingFileMonitor != null) {
+            try {
+                mappingFileMonitor.stop();
+            } catch (Exception e) {
+                log.debug("Mapping file monitor already stopped: {}", e.getMessage());
+            }
+        }
+        poolTuner.shutdown();
+        backlogScanner.shutdown();
+        // 尚未发送的批先转入重试队列，随重试队列一起写入待上传文件
+        batchCollector.shutdown((mapping, members) ->
+            members.forEach(member -> retryScheduler.onOverloaded(member.getFile(), mapping)));
+        retryScheduler.shutdown();
+        eventDebouncer.shutdown();
+        stabilityChecker.shutdown();
+        if (watchServiceMonitor != null) {
+            watchServiceMonitor.stop();
+        }
+        if (pollingMonitor != null) {
+            try {
+                pollingMonitor.stop();
+            } catch (Exception e) {
+                log.debug("Polling monitor already stopped: {}", e.getMessage());
+            }
+        }
         executorService.shutdown();
         try {
             if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
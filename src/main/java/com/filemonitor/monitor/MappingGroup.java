@@ -0,0 +1,105 @@
+package com.filemonitor.monitor;
+
+import com.filemonitor.config.MonitorConfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+
+/**
+ * 同一源目录下的映射组
+ * 共享一个观察者和一次目录扫描，文件名先用合并后的模式过滤，命中后再确定具体映射
+ */
+class MappingGroup {
+    private final String sourcePath;
+    private final List<MonitorConfig.FileMapping> mappings;
+    // 所有正则映射合并成的一个模式，含glob或反向引用时为null，逐个匹配
+    private final Pattern combinedPattern;
+
+    MappingGroup(String sourcePath, List<MonitorConfig.FileMapping> mappings) {
+        this.sourcePath = sourcePath;
+        this.mappings = Collections.unmodifiableList(new ArrayList<>(mappings));
+        this.combinedPattern = combine(mappings);
+    }
+
+    /**
+     * 按sourcePath分组，保持配置中的顺序
+     */
+    static List<MappingGroup> groupBySource(List<MonitorConfig.FileMapping> mappings) {
+        Map<String, List<MonitorConfig.FileMapping>> grouped = new LinkedHashMap<>();
+        for (MonitorConfig.FileMapping mapping : mappings) {
+            grouped.computeIfAbsent(mapping.getSourcePath(), path -> new ArrayList<>()).add(mapping);
+        }
+        return grouped.entrySet().stream()
+            .map(entry -> new MappingGroup(entry.getKey(), entry.getValue()))
+            .collect(Collectors.toList());
+    }
+
+    String getSourcePath() {
+        return sourcePath;
+    }
+
+    List<MonitorConfig.FileMapping> getMappings() {
+        return mappings;
+    }
+
+    /**
+     * 文件名是否匹配组内任一映射
+     */
+    boolean accept(String fileName) {
+        if (combinedPattern != null) {
+            return combinedPattern.matcher(fileName).matches();
+        }
+        for (MonitorConfig.FileMapping mapping : mappings) {
+            if (mapping.matches(fileName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 返回匹配该文件名的映射
+     */
+    List<MonitorConfig.FileMapping> matching(String fileName) {
+        if (mappings.size() == 1) {
+            return mappings.get(0).matches(fileName) ? mappings : Collections.emptyList();
+        }
+        List<MonitorConfig.FileMapping> result = new ArrayList<>(1);
+        for (MonitorConfig.FileMapping mapping : mappings) {
+            if (mapping.matches(fileName)) {
+                result.add(mapping);
+            }
+        }
+        return result;
+    }
+
+    private static Pattern combine(List<MonitorConfig.FileMapping> mappings) {
+        if (mappings.size() == 1) {
+            return mappings.get(0).getCompiledPattern();
+        }
+        StringBuilder combined = new StringBuilder();
+        for (MonitorConfig.FileMapping mapping : mappings) {
+            Pattern pattern = mapping.getCompiledPattern();
+            // 合并后分组编号会变化，含反向引用的模式不能合并
+            if (pattern == null || pattern.pattern().matches(".*\\\\(\\d|k<).*")) {
+                return null;
+            }
+            if (combined.length() > 0) {
+                combined.append('|');
+            }
+            combined.append("(?:").append(pattern.pattern()).append(')');
+        }
+        try {
+            return Pattern.compile(combined.toString());
+        } catch (PatternSyntaxException e) {
+            // 各自合法的模式合并后也可能非法，如多个模式使用同名的命名分组，此时逐个映射匹配
+            return null;
+        }
+    }
+}
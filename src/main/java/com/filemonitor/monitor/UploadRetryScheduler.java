@@ -0,0 +1,313 @@
+package com.filemonitor.monitor;
+
+import com.filemonitor.config.MonitorConfig;
+import com.filemonitor.persistence.PendingTransferStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+/**
+ * 上传失败重试
+ * 失败的文件进入持久化队列，按指数退避加随机抖动重试；
+ * 连续失败达到阈值时熔断，暂停所有上传，冷却后放行一个探测请求，成功则恢复并立即全速清空队列；
+ * 线程池排满时溢出的文件也暂存在这里，重新提交的数量不超过线程池的空余容量
+ */
+class UploadRetryScheduler {
+    private static final Logger log = LoggerFactory.getLogger(UploadRetryScheduler.class);
+    private static final long TICK_INTERVAL = 1000;
+
+    private enum BreakerState { CLOSED, OPEN, HALF_OPEN }
+
+    private final PendingTransferStore store;
+    private final BiConsumer<File, MonitorConfig.FileMapping> resubmitter;
+    private final Function<String, MonitorConfig.FileMapping> mappingResolver;
+    private final IntSupplier headroom;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final int breakerThreshold;
+    private final long breakerCooldown;
+    private final Map<String, PendingTransferStore.PendingTransfer> pending = new LinkedHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final Object flushLock = new Object();   // 保证保存按顺序进行，不与调度器的锁嵌套
+
+    private BreakerState breakerState = BreakerState.CLOSED;
+    private int consecutiveFailures;
+    private long breakerOpenUntil;
+    private boolean probeInFlight;
+    private long probeSequence;  // 最近一次探测许可的编号
+    private boolean dirty;
+
+    UploadRetryScheduler(MonitorConfig monitorConfig, PendingTransferStore store,
+                         BiConsumer<File, MonitorConfig.FileMapping> resubmitter,
+                         Function<String, MonitorConfig.FileMapping> mappingResolver,
+                         IntSupplier headroom) {
+        this.store = store;
+        this.resubmitter = resubmitter;
+        this.mappingResolver = mappingResolver;
+        this.headroom = headroom;
+        this.baseDelay = monitorConfig.getRetryBaseDelay();
+        this.maxDelay = monitorConfig.getRetryMaxDelay();
+        this.breakerThreshold = monitorConfig.getCircuitBreakerThreshold();
+        this.breakerCooldown = monitorConfig.getCircuitBreakerCooldown();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "upload-retry-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 加载上次未完成的重试并开始调度，重启后的首次重试立即进行
+     */
+    void start() {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (PendingTransferStore.PendingTransfer transfer : store.load()) {
+                transfer.setNextAttemptTime(now);
+                pending.put(transfer.getFilePath(), transfer);
+            }
+        }
+        scheduler.scheduleWithFixedDelay(this::tick, TICK_INTERVAL, TICK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 申请一次上传，熔断期间不发起上传（半开状态只放行一个探测请求）
+     * 得到的许可在上传结束时必须通过release归还，无论结果如何
+     * @return 上传许可，不允许上传时为null
+     */
+    synchronized Permit acquire() {
+        if (breakerState == BreakerState.CLOSED) {
+            return Permit.NORMAL;
+        }
+        if (breakerState == BreakerState.OPEN) {
+            if (System.currentTimeMillis() < breakerOpenUntil) {
+                return null;
+            }
+            breakerState = BreakerState.HALF_OPEN;
+            log.info("Circuit breaker half-open, probing remote host");
+        }
+        if (probeInFlight) {
+            return null;
+        }
+        probeInFlight = true;
+        return new Permit(++probeSequence);
+    }
+
+    /**
+     * 归还许可。探测请求没有得出结论（如文件已不存在、只有镜像失败）时放出探测名额，由下一个上传重新探测
+     */
+    synchronized void release(Permit permit) {
+        if (permit != null && permit.probe == probeSequence && probeInFlight && breakerState == BreakerState.HALF_OPEN) {
+            probeInFlight = false;
+        }
+    }
+
+    synchronized void onSuccess(File file) {
+        resolve(file);
+        consecutiveFailures = 0;
+        if (breakerState != BreakerState.CLOSED) {
+            breakerState = BreakerState.CLOSED;
+            probeInFlight = false;
+            // 远端恢复，所有排队文件立即重试
+            long now = System.currentTimeMillis();
+            pending.values().forEach(transfer -> transfer.setNextAttemptTime(now));
+            log.info("Circuit breaker closed, draining {} pending transfers", pending.size());
+        }
+    }
+
+    /**
+     * 文件无需再上传（如已处理过），从重试队列中移除
+     */
+    synchronized void resolve(File file) {
+        if (pending.remove(file.getAbsolutePath()) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * 上传失败，安排退避重试
+     */
+    synchronized void onFailure(File file, MonitorConfig.FileMapping mapping, Exception error) {
+        recordFailure();
+        logDeferred(defer(file, mapping, error.getMessage(), true));
+    }
+
+    /**
+     * 一批文件一起上传失败，只计一次熔断失败，各文件分别退避重试
+     */
+    synchronized void onFailure(List<File> files, MonitorConfig.FileMapping mapping, Exception error) {
+        recordFailure();
+        for (File file : files) {
+            logDeferred(defer(file, mapping, error.getMessage(), true));
+        }
+    }
+
+    /**
+     * 部分目的地（镜像）上传失败，按失败退避重试，但不计入熔断，主目的地照常上传
+     */
+    synchronized void onPartialFailure(File file, MonitorConfig.FileMapping mapping, Exception error) {
+        logDeferred(defer(file, mapping, error.getMessage(), true));
+    }
+
+    /**
+     * 熔断期间直接进入重试队列，不计为失败
+     */
+    synchronized void onRejected(File file, MonitorConfig.FileMapping mapping) {
+        logDeferred(defer(file, mapping, "circuit breaker open", false));
+    }
+
+    /**
+     * 线程池排满，文件暂存到重试队列，不计为失败
+     * 溢出往往成批发生，只记调试日志，数量见executor.spilled指标
+     */
+    synchronized void onOverloaded(File file, MonitorConfig.FileMapping mapping) {
+        PendingTransferStore.PendingTransfer transfer = defer(file, mapping, null, false);
+        log.debug("Worker queue full, {} deferred for {} ms", file.getPath(),
+            transfer.getNextAttemptTime() - System.currentTimeMillis());
+    }
+
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+        synchronized (this) {
+            dirty = true;
+        }
+        flushIfDirty();
+    }
+
+    private PendingTransferStore.PendingTransfer defer(File file, MonitorConfig.FileMapping mapping, String error,
+                                                       boolean attempted) {
+        PendingTransferStore.PendingTransfer transfer = pending.computeIfAbsent(file.getAbsolutePath(),
+            path -> new PendingTransferStore.PendingTransfer(path, mapping.getKey()));
+        if (attempted) {
+            transfer.setAttempts(transfer.getAttempts() + 1);
+            transfer.setLastError(error);
+        }
+        long delay = backoff(Math.max(1, transfer.getAttempts()));
+        transfer.setNextAttemptTime(Math.max(System.currentTimeMillis() + delay, breakerOpenUntil));
+        dirty = true;
+        return transfer;
+    }
+
+    private void logDeferred(PendingTransferStore.PendingTransfer transfer) {
+        log.warn("Upload of {} deferred (attempt {}), next retry in {} ms", transfer.getFilePath(), transfer.getAttempts(),
+            transfer.getNextAttemptTime() - System.currentTimeMillis());
+    }
+
+    private void recordFailure() {
+        consecutiveFailures++;
+        if (breakerState == BreakerState.HALF_OPEN
+                || (breakerState == BreakerState.CLOSED && consecutiveFailures >= breakerThreshold)) {
+            breakerState = BreakerState.OPEN;
+            probeInFlight = false;
+            breakerOpenUntil = System.currentTimeMillis() + breakerCooldown;
+            log.warn("Circuit breaker opened after {} consecutive upload failures, pausing uploads for {} ms",
+                consecutiveFailures, breakerCooldown);
+        }
+    }
+
+    /**
+     * 指数退避，取 [delay/2, delay] 之间的随机值，避免大量文件同时重试
+     */
+    private long backoff(int attempts) {
+        long delay = baseDelay << Math.min(attempts - 1, 20);
+        delay = Math.min(delay, maxDelay);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private void tick() {
+        List<PendingTransferStore.PendingTransfer> due = new ArrayList<>();
+        synchronized (this) {
+            if ((breakerState != BreakerState.OPEN || System.currentTimeMillis() >= breakerOpenUntil) && !probeInFlight) {
+                collectDue(due);
+            }
+        }
+        flushIfDirty();
+
+        for (PendingTransferStore.PendingTransfer transfer : due) {
+            File file = new File(transfer.getFilePath());
+            MonitorConfig.FileMapping mapping = mappingResolver.apply(transfer.getMappingKey());
+            if (!file.exists() || mapping == null) {
+                log.warn("Dropping pending transfer {}: {}", transfer.getFilePath(),
+                    mapping == null ? "mapping no longer configured" : "file no longer exists");
+                synchronized (this) {
+                    pending.remove(transfer.getFilePath());
+                    dirty = true;
+                }
+                continue;
+            }
+            log.info("Retrying upload of {} (attempt {})", file.getPath(), transfer.getAttempts() + 1);
+            resubmitter.accept(file, mapping);
+        }
+    }
+
+    /**
+     * 取出到期的重试，调用方持有锁
+     */
+    private void collectDue(List<PendingTransferStore.PendingTransfer> due) {
+        long now = System.currentTimeMillis();
+        int capacity = headroom.getAsInt();
+        for (PendingTransferStore.PendingTransfer transfer : pending.values()) {
+            if (due.size() >= capacity) {
+                break;
+            }
+            if (transfer.getNextAttemptTime() <= now) {
+                due.add(transfer);
+                if (breakerState != BreakerState.CLOSED) {
+                    // 熔断恢复前只重试一个
+                    break;
+                }
+            }
+        }
+        // 重新提交期间暂不重复提交，失败时会重新计算下次时间；重新提交的处理没有结果时
+        // （稳定性检查放弃、与正在处理的事件合并等）按最大退避时间再次重试，不会一直搁置
+        for (PendingTransferStore.PendingTransfer transfer : due) {
+            transfer.setNextAttemptTime(now + maxDelay);
+        }
+    }
+
+    /**
+     * 上传许可，半开状态下的许可是探测许可
+     */
+    static final class Permit {
+        private static final Permit NORMAL = new Permit(0);
+
+        private final long probe;  // 探测编号，0表示普通许可
+
+        private Permit(long probe) {
+            this.probe = probe;
+        }
+    }
+
+    /**
+     * 有变化时保存队列：锁内只复制快照，写文件和fsync在锁外进行，不阻塞上传线程
+     */
+    private void flushIfDirty() {
+        synchronized (flushLock) {
+            List<PendingTransferStore.PendingTransfer> snapshot = new ArrayList<>();
+            synchronized (this) {
+                if (!dirty) {
+                    return;
+                }
+                pending.values().forEach(transfer -> snapshot.add(new PendingTransferStore.PendingTransfer(transfer)));
+                dirty = false;
+            }
+            store.save(snapshot);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.filemonitor.monitor;
+
+import com.filemonitor.config.MonitorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * 基于java.nio.file.WatchService的文件监控（Linux上由inotify提供事件）
+ * 递归注册目录，新建的子目录自动注册，事件溢出时对相应目录做定向重扫
+ */
+public class WatchServiceMonitor {
+    private static final Logger log = LoggerFactory.getLogger(WatchServiceMonitor.class);
+
+    private final WatchService watchService;
+    private final BiConsumer<File, MonitorConfig.FileMapping> fileHandler;
+    // 每个已注册目录对应的WatchKey及覆盖它的映射组（源目录嵌套时一个目录可属于多个组）
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    private final Map<Path, List<MappingGroup>> directoryGroups = new ConcurrentHashMap<>();
+    private Thread watchThread;
+    private volatile boolean running;
+
+    public WatchServiceMonitor(BiConsumer<File, MonitorConfig.FileMapping> fileHandler) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.fileHandler = fileHandler;
+    }
+
+    /**
+     * 注册映射组的源目录及其所有子目录
+     */
+    void register(MappingGroup group) throws IOException {
+        registerTree(Paths.get(group.getSourcePath()), group, false);
+    }
+
+    /**
+     * 注销映射组：从各目录的组列表中移除，不再属于任何组的目录取消监听
+     */
+    void unregister(MappingGroup group) {
+        for (Map.Entry<WatchKey, Path> entry : watchedDirectories.entrySet()) {
+            Path dir = entry.getValue();
+            List<MappingGroup> groups = directoryGroups.get(dir);
+            if (groups == null || !groups.remove(group) || !groups.isEmpty()) {
+                continue;
+            }
+            directoryGroups.remove(dir);
+            watchedDirectories.remove(entry.getKey());
+            entry.getKey().cancel();
+        }
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        watchThread = new Thread(this::processEvents, "file-watch-service");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn("Error closing watch service: {}", e.getMessage());
+        }
+        if (watchThread != null) {
+            watchThread.interrupt();
+        }
+    }
+
+    private void processEvents() {
+        while (running) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                break;
+            }
+
+            Path directory = watchedDirectories.get(key);
+            if (directory == null) {
+                key.cancel();
+                continue;
+            }
+
+            try {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        log.warn("Watch events overflowed for directory {}, rescanning", directory);
+                        rescan(directory);
+                        continue;
+                    }
+                    Path child = directory.resolve((Path) event.context());
+                    handleEvent(event.kind(), child, directory);
+                }
+            } catch (Exception e) {
+                log.error("Error handling watch events for {}: {}", directory, e.getMessage(), e);
+            }
+
+            if (!key.reset()) {
+                watchedDirectories.remove(key);
+                directoryGroups.remove(directory);
+                log.debug("Directory no longer watched: {}", directory);
+            }
+        }
+        log.info("Watch service event loop stopped");
+    }
+
+    private void handleEvent(WatchEvent.Kind<?> kind, Path child, Path directory) throws IOException {
+        List<MappingGroup> groups = directoryGroups.get(directory);
+        if (groups == null) {
+            return;
+        }
+        if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+            if (kind == ENTRY_CREATE) {
+                // 注册前目录中可能已经写入了文件，注册时一并扫描
+                for (MappingGroup group : groups) {
+                    registerTree(child, group, true);
+                }
+            }
+            return;
+        }
+        if (Files.isRegularFile(child)) {
+            for (MappingGroup group : groups) {
+                dispatch(child.toFile(), group);
+            }
+        }
+    }
+
+    /**
+     * 事件溢出后重新扫描目录树，把匹配的文件重新交给处理流程（已处理的文件会被记录服务过滤）
+     */
+    private void rescan(Path directory) throws IOException {
+        List<MappingGroup> groups = directoryGroups.get(directory);
+        if (groups == null) {
+            return;
+        }
+        for (MappingGroup group : groups) {
+            registerTree(directory, group, true);
+        }
+    }
+
+    private void registerTree(Path root, MappingGroup group, boolean emitFiles) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                registerDirectory(dir, group);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (emitFiles && attrs.isRegularFile()) {
+                    dispatch(file.toFile(), group);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                log.warn("Unable to access {}: {}", file, e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void registerDirectory(Path dir, MappingGroup group) throws IOException {
+        WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+        watchedDirectories.put(key, dir);
+        List<MappingGroup> groups = directoryGroups.computeIfAbsent(dir, d -> new CopyOnWriteArrayList<>());
+        if (!groups.contains(group)) {
+            groups.add(group);
+        }
+    }
+
+    private void dispatch(File file, MappingGroup group) {
+        for (MonitorConfig.FileMapping mapping : group.matching(file.getName())) {
+            fileHandler.accept(file, mapping);
+        }
+    }
+}
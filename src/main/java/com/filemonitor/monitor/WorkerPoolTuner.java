@@ -0,0 +1,137 @@
+package com.filemonitor.monitor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按观测到的上传吞吐和耗时调整处理线程数
+ * 有积压时逐个增加线程；增加后吞吐没有提升、单次上传耗时却变长，说明远端或连接池已饱和，退回一步并保持一段时间；
+ * 半数以上上传失败时减半。线程数始终在[minThreads, maxThreads]之间
+ */
+class WorkerPoolTuner {
+    private static final Logger log = LoggerFactory.getLogger(WorkerPoolTuner.class);
+    private static final long TUNE_INTERVAL = 5000;
+    // 吞吐或耗时变化超过10%才视为有变化
+    private static final double TOLERANCE = 0.1;
+    // 退回后保持的调整周期数
+    private static final int HOLD_INTERVALS = 6;
+
+    private final ThreadPoolExecutor executor;
+    private final int minThreads;
+    private final int maxThreads;
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder tasks = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder elapsed = new LongAdder();
+    private final ScheduledExecutorService scheduler;
+
+    private volatile int limit;
+    private long lastTune = System.currentTimeMillis();
+    private double lastThroughput;
+    private double lastLatency;
+    private boolean lastIncreased;
+    private int hold;
+
+    WorkerPoolTuner(ThreadPoolExecutor executor, int minThreads, int maxThreads) {
+        this.executor = executor;
+        this.minThreads = Math.max(1, minThreads);
+        this.maxThreads = Math.max(this.minThreads, maxThreads);
+        this.limit = this.minThreads;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "worker-pool-tuner");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 最小和最大线程数相同时固定大小，不启动调整
+     */
+    void start() {
+        if (maxThreads > minThreads) {
+            scheduler.scheduleWithFixedDelay(this::tune, TUNE_INTERVAL, TUNE_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 记录一次上传（单个文件或一批）的字节数、耗时和结果
+     */
+    void onUpload(long size, long millis, boolean success) {
+        bytes.add(size);
+        elapsed.add(millis);
+        tasks.increment();
+        if (!success) {
+            failures.increment();
+        }
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void tune() {
+        long now = System.currentTimeMillis();
+        double seconds = Math.max(1, now - lastTune) / 1000.0;
+        lastTune = now;
+        long intervalBytes = bytes.sumThenReset();
+        long intervalTasks = tasks.sumThenReset();
+        long intervalFailures = failures.sumThenReset();
+        long intervalElapsed = elapsed.sumThenReset();
+        if (intervalTasks == 0) {
+            lastIncreased = false;
+            return;
+        }
+
+        double throughput = intervalBytes / seconds;
+        double latency = (double) intervalElapsed / intervalTasks;
+        boolean backlogged = executor.getQueue().size() > 0 || executor.getActiveCount() >= limit;
+
+        if (intervalFailures * 2 > intervalTasks) {
+            resize(limit / 2, "upload failures");
+            hold = HOLD_INTERVALS;
+            lastIncreased = false;
+        } else if (lastIncreased && throughput < lastThroughput * (1 + TOLERANCE)
+                && latency > lastLatency * (1 + TOLERANCE)) {
+            resize(limit - 1, "no throughput gain");
+            hold = HOLD_INTERVALS;
+            lastIncreased = false;
+        } else if (backlogged && hold <= 0 && limit < maxThreads) {
+            resize(limit + 1, "backlog");
+            lastIncreased = true;
+        } else {
+            hold--;
+            lastIncreased = false;
+        }
+        lastThroughput = throughput;
+        lastLatency = latency;
+    }
+
+    private void resize(int target, String reason) {
+        int size = Math.max(minThreads, Math.min(maxThreads, target));
+        if (size == limit) {
+            return;
+        }
+        // 核心线程数不能大于最大线程数，扩大时先调最大值，缩小时先调核心值
+        if (size > limit) {
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+            // 新线程立即从队列取任务，避免之后提交的任务在新建线程上直接执行而绕过排队调度
+            executor.prestartAllCoreThreads();
+        } else {
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        }
+        log.info("Worker pool resized from {} to {} threads ({})", limit, size, reason);
+        limit = size;
+    }
+}
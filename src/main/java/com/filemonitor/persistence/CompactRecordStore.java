@@ -0,0 +1,416 @@
+package com.filemonitor.persistence;
+
+import com.filemonitor.util.HashUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 紧凑的已处理文件记录存储
+ * 记录按列存放在分页的基本类型数组中，不为每条记录创建对象：
+ * 摘要保存为32字节原始值，路径拆成共享的目录前缀（按编号引用）和UTF-8文件名，
+ * 处理时间精确到秒；索引是以路径为键的开放寻址int数组。
+ * 每条记录约占 81 字节 + 文件名字节数（实测 5,000,000 条、文件名19字节时约100字节/条，
+ * 原先的对象表示约368字节/条）。
+ *
+ * 记录按写入顺序追加，写入顺序即处理时间顺序，过期清理从最旧的一端推进；
+ * 同一路径更新时旧记录标记为失效，失效记录过多时原地压缩。
+ */
+class CompactRecordStore {
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;          // 每页65536条记录
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int NAME_PAGE_BITS = 20;
+    private static final int NAME_PAGE_SIZE = 1 << NAME_PAGE_BITS; // 文件名区每页1MB
+    private static final int DIGEST_LENGTH = 32;
+    private static final int DEAD = -1;
+    private static final float MAX_LOAD = 0.7f;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // 目录前缀表，同一映射下的文件共享同一个前缀
+    private final List<String> directories = new ArrayList<>();
+    private final Map<String, Integer> directoryIds = new HashMap<>();
+
+    // 按页存放的记录列
+    private long[][] sizes = new long[0][];
+    private long[][] lastModifieds = new long[0][];
+    private long[][] fileKeys = new long[0][];
+    private int[][] processSeconds = new int[0][];
+    private int[][] pathHashes = new int[0][];
+    private int[][] directoryRefs = new int[0][];
+    private int[][] nameOffsets = new int[0][];
+    private short[][] nameLengths = new short[0][];
+    private byte[][] digests = new byte[0][];
+
+    // 文件名字节区
+    private byte[][] namePages = new byte[0][];
+    private int nameWritePage = -1;
+    private int nameWriteOffset = NAME_PAGE_SIZE;
+
+    // 路径索引，值为记录编号+1，0表示空位
+    private int[] table = new int[1024];
+    private int head;   // 最旧的可能有效的记录
+    private int count;  // 已分配的记录数（含失效记录）
+    private int live;   // 有效记录数
+
+    /**
+     * 写入记录，同一路径已有记录时替换
+     */
+    void put(FileRecordService.FileRecord record) {
+        String path = record.getFilePath();
+        int split = path.lastIndexOf(File.separatorChar) + 1;
+        byte[] name = path.substring(split).getBytes(StandardCharsets.UTF_8);
+        byte[] digest = HashUtils.fromHex(record.getFileHash());
+        if (digest.length != DIGEST_LENGTH) {
+            throw new IllegalArgumentException("Unexpected digest length for " + path);
+        }
+        int hash = hash(path);
+
+        lock.writeLock().lock();
+        try {
+            int dirId = directoryIds.computeIfAbsent(path.substring(0, split), dir -> {
+                directories.add(dir);
+                return directories.size() - 1;
+            });
+
+            int existing = find(hash, dirId, name);
+            if (existing >= 0) {
+                removeFromTable(existing);
+                markDead(existing);
+            }
+
+            int slot = allocate();
+            int page = slot >>> PAGE_BITS;
+            int index = slot & PAGE_MASK;
+            sizes[page][index] = record.getFileSize();
+            lastModifieds[page][index] = record.getLastModified();
+            fileKeys[page][index] = parseFileKey(record.getFileKey());
+            processSeconds[page][index] = (int) (record.getProcessTime() / 1000);
+            pathHashes[page][index] = hash;
+            directoryRefs[page][index] = dirId;
+            nameOffsets[page][index] = appendName(name);
+            nameLengths[page][index] = (short) name.length;
+            System.arraycopy(digest, 0, digests[page], index * DIGEST_LENGTH, DIGEST_LENGTH);
+
+            live++;
+            insertIntoTable(slot, hash);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按路径查找记录，找不到返回null
+     */
+    FileRecordService.FileRecord get(String path) {
+        int split = path.lastIndexOf(File.separatorChar) + 1;
+        byte[] name = path.substring(split).getBytes(StandardCharsets.UTF_8);
+        int hash = hash(path);
+
+        lock.readLock().lock();
+        try {
+            Integer dirId = directoryIds.get(path.substring(0, split));
+            if (dirId == null) {
+                return null;
+            }
+            int slot = find(hash, dirId, name);
+            return slot >= 0 ? materialize(slot) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 删除处理时间早于cutoff的记录，只访问已过期的部分
+     */
+    int removeOlderThan(long cutoff) {
+        lock.writeLock().lock();
+        try {
+            int removed = 0;
+            while (head < count) {
+                int page = head >>> PAGE_BITS;
+                int index = head & PAGE_MASK;
+                if (directoryRefs[page][index] != DEAD) {
+                    if (Integer.toUnsignedLong(processSeconds[page][index]) * 1000L >= cutoff) {
+                        break;
+                    }
+                    removeFromTable(head);
+                    markDead(head);
+                    removed++;
+                }
+                head++;
+            }
+            if (count - live > PAGE_SIZE && count - live > live) {
+                compact();
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按处理时间顺序遍历全部有效记录，遍历期间阻塞写入
+     */
+    void forEach(RecordVisitor visitor) throws IOException {
+        lock.readLock().lock();
+        try {
+            for (int slot = head; slot < count; slot++) {
+                if (directoryRefs[slot >>> PAGE_BITS][slot & PAGE_MASK] != DEAD) {
+                    visitor.visit(materialize(slot));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    interface RecordVisitor {
+        void visit(FileRecordService.FileRecord record) throws IOException;
+    }
+
+    private FileRecordService.FileRecord materialize(int slot) {
+        int page = slot >>> PAGE_BITS;
+        int index = slot & PAGE_MASK;
+        int offset = nameOffsets[page][index];
+        String name = new String(namePages[offset >>> NAME_PAGE_BITS], offset & (NAME_PAGE_SIZE - 1),
+            nameLengths[page][index] & 0xFFFF, StandardCharsets.UTF_8);
+
+        FileRecordService.FileRecord record = new FileRecordService.FileRecord();
+        record.setFilePath(directories.get(directoryRefs[page][index]) + name);
+        record.setFileHash(HashUtils.toHex(Arrays.copyOfRange(digests[page],
+            index * DIGEST_LENGTH, (index + 1) * DIGEST_LENGTH)));
+        record.setFileSize(sizes[page][index]);
+        record.setLastModified(lastModifieds[page][index]);
+        record.setProcessTime(Integer.toUnsignedLong(processSeconds[page][index]) * 1000L);
+        long fileKey = fileKeys[page][index];
+        record.setFileKey(fileKey != 0 ? Long.toHexString(fileKey) : null);
+        return record;
+    }
+
+    private int find(int hash, int dirId, byte[] name) {
+        int mask = table.length - 1;
+        for (int i = hash & mask; table[i] != 0; i = (i + 1) & mask) {
+            int slot = table[i] - 1;
+            int page = slot >>> PAGE_BITS;
+            int index = slot & PAGE_MASK;
+            if (pathHashes[page][index] == hash
+                    && directoryRefs[page][index] == dirId
+                    && nameEquals(nameOffsets[page][index], nameLengths[page][index] & 0xFFFF, name)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private boolean nameEquals(int offset, int length, byte[] name) {
+        if (length != name.length) {
+            return false;
+        }
+        byte[] namePage = namePages[offset >>> NAME_PAGE_BITS];
+        int start = offset & (NAME_PAGE_SIZE - 1);
+        return Arrays.equals(namePage, start, start + length, name, 0, length);
+    }
+
+    private void insertIntoTable(int slot, int hash) {
+        if (live > table.length * MAX_LOAD) {
+            // 重建时已包含这条记录
+            rehash(table.length * 2);
+            return;
+        }
+        int mask = table.length - 1;
+        int i = hash & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = slot + 1;
+    }
+
+    /**
+     * 线性探测下的删除：把后续探测链上的元素前移，不留墓碑
+     */
+    private void removeFromTable(int slot) {
+        int mask = table.length - 1;
+        int i = pathHashes[slot >>> PAGE_BITS][slot & PAGE_MASK] & mask;
+        while (table[i] != slot + 1) {
+            i = (i + 1) & mask;
+        }
+        table[i] = 0;
+        for (int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int other = table[j] - 1;
+            int home = pathHashes[other >>> PAGE_BITS][other & PAGE_MASK] & mask;
+            boolean movable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+            if (movable) {
+                table[i] = table[j];
+                table[j] = 0;
+                i = j;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        int mask = capacity - 1;
+        for (int slot = head; slot < count; slot++) {
+            int page = slot >>> PAGE_BITS;
+            int index = slot & PAGE_MASK;
+            if (directoryRefs[page][index] == DEAD) {
+                continue;
+            }
+            int i = pathHashes[page][index] & mask;
+            while (table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            table[i] = slot + 1;
+        }
+    }
+
+    private void markDead(int slot) {
+        directoryRefs[slot >>> PAGE_BITS][slot & PAGE_MASK] = DEAD;
+        live--;
+    }
+
+    private int allocate() {
+        int page = count >>> PAGE_BITS;
+        if (page == sizes.length) {
+            addPage();
+        }
+        return count++;
+    }
+
+    private void addPage() {
+        int pages = sizes.length + 1;
+        sizes = Arrays.copyOf(sizes, pages);
+        lastModifieds = Arrays.copyOf(lastModifieds, pages);
+        fileKeys = Arrays.copyOf(fileKeys, pages);
+        processSeconds = Arrays.copyOf(processSeconds, pages);
+        pathHashes = Arrays.copyOf(pathHashes, pages);
+        directoryRefs = Arrays.copyOf(directoryRefs, pages);
+        nameOffsets = Arrays.copyOf(nameOffsets, pages);
+        nameLengths = Arrays.copyOf(nameLengths, pages);
+        digests = Arrays.copyOf(digests, pages);
+
+        int last = pages - 1;
+        sizes[last] = new long[PAGE_SIZE];
+        lastModifieds[last] = new long[PAGE_SIZE];
+        fileKeys[last] = new long[PAGE_SIZE];
+        processSeconds[last] = new int[PAGE_SIZE];
+        pathHashes[last] = new int[PAGE_SIZE];
+        directoryRefs[last] = new int[PAGE_SIZE];
+        nameOffsets[last] = new int[PAGE_SIZE];
+        nameLengths[last] = new short[PAGE_SIZE];
+        digests[last] = new byte[PAGE_SIZE * DIGEST_LENGTH];
+    }
+
+    /**
+     * 文件名不跨页存放，当前页放不下时换新页
+     */
+    private int appendName(byte[] name) {
+        if (nameWriteOffset + name.length > NAME_PAGE_SIZE) {
+            nameWritePage++;
+            nameWriteOffset = 0;
+            if (nameWritePage == namePages.length) {
+                namePages = Arrays.copyOf(namePages, namePages.length + 1);
+                namePages[nameWritePage] = new byte[NAME_PAGE_SIZE];
+            }
+        }
+        int offset = (nameWritePage << NAME_PAGE_BITS) | nameWriteOffset;
+        System.arraycopy(name, 0, namePages[nameWritePage], nameWriteOffset, name.length);
+        nameWriteOffset += name.length;
+        return offset;
+    }
+
+    /**
+     * 原地压缩：有效记录前移填补失效记录，文件名区同步前移，然后释放多余的页并重建索引
+     * 记录和文件名都按写入顺序存放，写位置总不超过读位置，因此无需额外内存
+     */
+    private void compact() {
+        int write = 0;
+        nameWritePage = -1;
+        nameWriteOffset = NAME_PAGE_SIZE;
+        for (int slot = head; slot < count; slot++) {
+            int page = slot >>> PAGE_BITS;
+            int index = slot & PAGE_MASK;
+            if (directoryRefs[page][index] == DEAD) {
+                continue;
+            }
+            int offset = nameOffsets[page][index];
+            int length = nameLengths[page][index] & 0xFFFF;
+            byte[] name = Arrays.copyOfRange(namePages[offset >>> NAME_PAGE_BITS],
+                offset & (NAME_PAGE_SIZE - 1), (offset & (NAME_PAGE_SIZE - 1)) + length);
+
+            int toPage = write >>> PAGE_BITS;
+            int toIndex = write & PAGE_MASK;
+            sizes[toPage][toIndex] = sizes[page][index];
+            lastModifieds[toPage][toIndex] = lastModifieds[page][index];
+            fileKeys[toPage][toIndex] = fileKeys[page][index];
+            processSeconds[toPage][toIndex] = processSeconds[page][index];
+            pathHashes[toPage][toIndex] = pathHashes[page][index];
+            directoryRefs[toPage][toIndex] = directoryRefs[page][index];
+            nameLengths[toPage][toIndex] = nameLengths[page][index];
+            System.arraycopy(digests[page], index * DIGEST_LENGTH, digests[toPage], toIndex * DIGEST_LENGTH, DIGEST_LENGTH);
+            nameOffsets[toPage][toIndex] = appendName(name);
+            write++;
+        }
+
+        head = 0;
+        count = write;
+        int pages = (count + PAGE_MASK) >>> PAGE_BITS;
+        sizes = Arrays.copyOf(sizes, pages);
+        lastModifieds = Arrays.copyOf(lastModifieds, pages);
+        fileKeys = Arrays.copyOf(fileKeys, pages);
+        processSeconds = Arrays.copyOf(processSeconds, pages);
+        pathHashes = Arrays.copyOf(pathHashes, pages);
+        directoryRefs = Arrays.copyOf(directoryRefs, pages);
+        nameOffsets = Arrays.copyOf(nameOffsets, pages);
+        nameLengths = Arrays.copyOf(nameLengths, pages);
+        digests = Arrays.copyOf(digests, pages);
+        namePages = Arrays.copyOf(namePages, nameWritePage + 1);
+
+        int capacity = 1024;
+        while (capacity * MAX_LOAD < live) {
+            capacity <<= 1;
+        }
+        rehash(capacity);
+    }
+
+    /**
+     * fileKey以64位十六进制指纹的形式保存，无法解析（或没有）时记为0
+     */
+    private static long parseFileKey(String fileKey) {
+        if (fileKey == null || fileKey.isEmpty() || fileKey.length() > 16) {
+            return 0;
+        }
+        try {
+            return Long.parseUnsignedLong(fileKey, 16);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static int hash(String path) {
+        int h = path.hashCode();
+        // 打散低位，线性探测依赖低位分布
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+}
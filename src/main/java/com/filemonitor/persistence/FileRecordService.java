@@ -1,23 +1,66 @@
 package com.filemonitor.persistence;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.filemonitor.config.MonitorConfig;
+import com.filemonitor.metrics.LatencyHistogram;
+import com.filemonitor.metrics.MetricsRegistry;
+import com.filemonitor.util.BlockSignatures;
+import com.filemonitor.util.HashUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.security.MessageDigest;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class FileRecordService {
     private static final Logger log = LoggerFactory.getLogger(FileRecordService.class);
+    private static final char DESTINATION_SEPARATOR = '\0';  // 路径中不会出现的字符
+    private static final long RETENTION_PERIOD = 30L * 24 * 60 * 60 * 1000; // 记录保留30天
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String SIGNATURES_SUFFIX = ".signatures";
+    private static final long COMPACTION_INTERVAL = 10 * 60 * 1000;  // 每10分钟把日志合并为快照
+    private static final long COMPACTION_THRESHOLD = 100000;         // 日志超过该条数时提前合并
+    private static final int HASH_CACHE_SIZE = 1024;
     
     private final String recordFile;
-    private final Set<FileRecord> processedFiles;
+    // 按绝对路径索引的已处理文件记录，每个路径只保留最新一条，按处理时间顺序过期
+    private final CompactRecordStore processedFiles;
     private final ObjectMapper objectMapper;
+    // 追加日志，每条记录处理完即落盘，快照只在后台定期生成
+    private final RecordJournal journal;
+    private final ScheduledExecutorService compactor;
+    // 增量上传的分块签名，与记录按同样的键保存
+    private final SignatureStore signatureStore;
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final LatencyHistogram hashTime;
+    // 最近计算过的文件哈希，键包含路径、大小、修改时间和fileKey，任一变化即失效
+    private final Map<String, String> hashCache = Collections.synchronizedMap(
+        new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > HASH_CACHE_SIZE;
+            }
+        });
 
     public static class FileRecord {
         private String filePath;
@@ -25,6 +68,7 @@ public class FileRecordService {
         private long lastModified;
         private long fileSize;
         private long processTime;
+        private String fileKey;   // 文件系统标识（如inode）的十六进制指纹，不支持时为null
 
         public FileRecord() {}
 
@@ -75,24 +119,54 @@ public class FileRecordService {
         public void setProcessTime(long processTime) {
             this.processTime = processTime;
         }
+
+        public String getFileKey() {
+            return fileKey;
+        }
+
+        public void setFileKey(String fileKey) {
+            this.fileKey = fileKey;
+        }
     }
 
-    public FileRecordService(String recordFile) {
+    public FileRecordService(String recordFile, MetricsRegistry metrics) {
         this.recordFile = recordFile;
-        this.processedFiles = ConcurrentHashMap.newKeySet();
+        this.hashTime = metrics.histogram("hash.time");
+        this.processedFiles = new CompactRecordStore();
+        metrics.gauge("records.count", processedFiles::size);
         this.objectMapper = new ObjectMapper();
+        this.signatureStore = new SignatureStore(recordFile + SIGNATURES_SUFFIX);
         loadRecords();
+        try {
+            this.journal = new RecordJournal(recordFile + JOURNAL_SUFFIX, objectMapper);
+            long replayed = journal.replay(this::index);
+            log.info("Replayed {} journal entries, {} processed file records in total", replayed, processedFiles.size());
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open record journal: " + e.getMessage(), e);
+        }
+        cleanupOldRecords();
+
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "record-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compactIfNeeded,
+            COMPACTION_INTERVAL, COMPACTION_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
     private void loadRecords() {
         try {
             File file = new File(recordFile);
             if (file.exists()) {
-                Set<FileRecord> records = objectMapper.readValue(
+                List<FileRecord> records = objectMapper.readValue(
                     file,
-                    new TypeReference<Set<FileRecord>>() {}
+                    new TypeReference<List<FileRecord>>() {}
                 );
-                processedFiles.addAll(records);
+                records.sort(Comparator.comparingLong(FileRecord::getProcessTime));
+                for (FileRecord record : records) {
+                    index(record);
+                }
                 log.info("Loaded {} processed file records", records.size());
             }
         } catch (IOException e) {
@@ -100,25 +174,88 @@ public class FileRecordService {
         }
     }
 
-    public void saveRecords() {
+    /**
+     * 生成快照：先轮转日志，再把内存中的全部记录写入快照文件，最后丢弃已并入快照的旧日志
+     * 快照先写临时文件并fsync，再原子替换，任何一步失败都不会丢失记录
+     */
+    public synchronized void saveRecords() {
         try {
-            objectMapper.writeValue(new File(recordFile), processedFiles);
-            log.info("Saved {} processed file records", processedFiles.size());
+            journal.rotate();
+
+            cleanupOldRecords();
+            Path target = Paths.get(recordFile);
+            Path temp = Paths.get(recordFile + ".tmp");
+            int[] count = {0};
+            ObjectWriter writer = objectMapper.writerFor(FileRecord.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            try (FileOutputStream out = new FileOutputStream(temp.toFile());
+                 JsonGenerator generator = objectMapper.getFactory().createGenerator(new BufferedOutputStream(out))) {
+                generator.writeStartArray();
+                // 按处理时间顺序写出
+                processedFiles.forEach(record -> {
+                    writer.writeValue(generator, record);
+                    count[0]++;
+                });
+                generator.writeEndArray();
+                generator.flush();
+                out.getFD().sync();
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            journal.discardRotated();
+            log.info("Saved {} processed file records", count[0]);
         } catch (IOException e) {
             log.error("Error saving file records: {}", e.getMessage(), e);
         }
     }
 
+    /**
+     * 关闭服务前生成最终快照并关闭日志
+     */
+    public void shutdown() {
+        compactor.shutdownNow();
+        saveRecords();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.error("Error closing record journal: {}", e.getMessage(), e);
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (journal.getEntryCount() > 0 || journal.hasRotated()) {
+            saveRecords();
+        }
+    }
+
+    /**
+     * 检查文件是否已处理
+     * 路径、大小、修改时间和fileKey都与记录一致时直接认定已处理，
+     * 只有元数据无法确定（旧记录缺少fileKey或fileKey不同）时才计算哈希
+     */
     public boolean isFileProcessed(File file) {
+        return isFileProcessed(file, MonitorConfig.FileMapping.PRIMARY_DESTINATION);
+    }
+
+    /**
+     * 检查文件是否已上传到指定目的地
+     */
+    public boolean isFileProcessed(File file, String destination) {
         try {
-            String fileHash = calculateFileHash(file);
-            long fileSize = file.length();
-            
-            return processedFiles.stream().anyMatch(record -> 
-                record.getFileHash().equals(fileHash) && 
-                record.getFileSize() == fileSize &&
-                record.getLastModified() == file.lastModified()
-            );
+            FileRecord record = processedFiles.get(recordKey(file, destination));
+            if (record == null) {
+                return false;
+            }
+            BasicFileAttributes attrs = readAttributes(file);
+            if (record.getFileSize() != attrs.size()
+                    || record.getLastModified() != attrs.lastModifiedTime().toMillis()) {
+                return false;
+            }
+            String fileKey = fileKeyOf(attrs);
+            if (fileKey != null && fileKey.equals(record.getFileKey())) {
+                return true;
+            }
+            return record.getFileHash().equals(getFileHash(file, attrs));
         } catch (IOException e) {
             log.error("Error checking file process status: {}", e.getMessage(), e);
             return false;
@@ -127,51 +264,149 @@ public class FileRecordService {
 
     public void addProcessedFile(File file) {
         try {
-            String fileHash = calculateFileHash(file);
-            processedFiles.add(new FileRecord(
-                file.getAbsolutePath(),
+            BasicFileAttributes attrs = readAttributes(file);
+            addProcessedFile(file, getFileHash(file, attrs),
+                attrs.lastModifiedTime().toMillis(), attrs.size());
+        } catch (IOException e) {
+            log.error("Error adding processed file record: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 使用已知的哈希记录已处理文件（例如上传时顺带计算的摘要），不再读取文件内容
+     * lastModified和fileSize应在读取文件之前获取，这样读取期间文件发生的变化会在下次检查时被发现
+     */
+    public void addProcessedFile(File file, String fileHash, long lastModified, long fileSize) {
+        addProcessedFile(file, MonitorConfig.FileMapping.PRIMARY_DESTINATION, fileHash, lastModified, fileSize);
+    }
+
+    /**
+     * 记录文件已上传到指定目的地，各目的地分别记录，互不影响
+     */
+    public void addProcessedFile(File file, String destination, String fileHash, long lastModified, long fileSize) {
+        try {
+            FileRecord record = new FileRecord(
+                recordKey(file, destination),
                 fileHash,
-                file.lastModified(),
-                file.length()
-            ));
-            
-            // 定期保存并清理旧记录
-            if (processedFiles.size() % 100 == 0) {
-                cleanupOldRecords();
-                saveRecords();
+                lastModified,
+                fileSize
+            );
+            record.setFileKey(fileKeyOf(readAttributes(file)));
+            index(record);
+            journal.append(record);
+
+            // 日志过长时提前合并为快照
+            if (journal.getEntryCount() >= COMPACTION_THRESHOLD && !compacting.getAndSet(true)) {
+                compactor.execute(() -> {
+                    try {
+                        saveRecords();
+                    } finally {
+                        compacting.set(false);
+                    }
+                });
             }
         } catch (IOException e) {
             log.error("Error adding processed file record: {}", e.getMessage(), e);
         }
     }
 
+    /**
+     * 文件上传到指定目的地的最新记录，没有时为null
+     */
+    public FileRecord getRecord(File file, String destination) {
+        return processedFiles.get(recordKey(file, destination));
+    }
+
+    /**
+     * 文件在指定目的地上的分块签名，只有签名对应的内容与fileHash一致时才返回
+     */
+    public BlockSignatures getSignatures(File file, String destination, String fileHash) {
+        BlockSignatures signatures = signatureStore.load(recordKey(file, destination));
+        return signatures != null && signatures.getFileHash().equals(fileHash) ? signatures : null;
+    }
+
+    public void saveSignatures(File file, String destination, BlockSignatures signatures) {
+        try {
+            signatureStore.save(recordKey(file, destination), signatures);
+        } catch (IOException e) {
+            log.error("Error saving block signatures for {}: {}", file.getPath(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 远程文件将被改写前删除签名，改写中断后下次不会再按旧签名比对
+     * @return 是否已删除（或本来就没有）
+     */
+    public boolean removeSignatures(File file, String destination) {
+        try {
+            signatureStore.remove(recordKey(file, destination));
+            return true;
+        } catch (IOException e) {
+            log.error("Error removing block signatures for {}: {}", file.getPath(), e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private void index(FileRecord record) {
+        try {
+            processedFiles.put(record);
+        } catch (IllegalArgumentException e) {
+            log.warn("Skipping invalid file record {}: {}", record.getFilePath(), e.getMessage());
+        }
+    }
+
+    /**
+     * 主目的地的记录以文件路径为键，与旧记录兼容；其他目的地在路径后加上分隔符和目的地名
+     */
+    private static String recordKey(File file, String destination) {
+        if (MonitorConfig.FileMapping.PRIMARY_DESTINATION.equals(destination)) {
+            return file.getAbsolutePath();
+        }
+        return file.getAbsolutePath() + DESTINATION_SEPARATOR + destination;
+    }
+
+    private BasicFileAttributes readAttributes(File file) throws IOException {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    }
+
+    private String fileKeyOf(BasicFileAttributes attrs) {
+        Object fileKey = attrs.fileKey();
+        return fileKey != null ? Long.toHexString(HashUtils.fingerprint64(fileKey.toString())) : null;
+    }
+
+    /**
+     * 获取文件哈希，同一事件中的重复检查直接命中缓存而不再读盘
+     */
+    private String getFileHash(File file, BasicFileAttributes attrs) throws IOException {
+        String cacheKey = file.getAbsolutePath() + '|' + attrs.size() + '|'
+            + attrs.lastModifiedTime().toMillis() + '|' + fileKeyOf(attrs);
+        String hash = hashCache.get(cacheKey);
+        if (hash == null) {
+            hash = calculateFileHash(file);
+            hashCache.put(cacheKey, hash);
+        }
+        return hash;
+    }
+
     private String calculateFileHash(File file) throws IOException {
-        try (FileInputStream fis = new FileInputStream(file)) {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                digest.update(buffer, 0, bytesRead);
-            }
-            byte[] hash = digest.digest();
-            
-            // 转换为十六进制字符串
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) {
-                    hexString.append('0');
-                }
-                hexString.append(hex);
-            }
-            return hexString.toString();
+        long start = System.currentTimeMillis();
+        try {
+            String hash = HashUtils.hashFile(file);
+            hashTime.recordSince(start);
+            return hash;
         } catch (Exception e) {
             throw new IOException("Error calculating file hash", e);
         }
     }
 
     private void cleanupOldRecords() {
-        long thirtyDaysAgo = System.currentTimeMillis() - (30L * 24 * 60 * 60 * 1000);
-        processedFiles.removeIf(record -> record.getProcessTime() < thirtyDaysAgo);
+        int removed = processedFiles.removeOlderThan(System.currentTimeMillis() - RETENTION_PERIOD);
+        if (removed > 0) {
+            log.info("Removed {} expired processed file records", removed);
+        }
+        int removedSignatures = signatureStore.removeOlderThan(System.currentTimeMillis() - RETENTION_PERIOD);
+        if (removedSignatures > 0) {
+            log.info("Removed {} expired block signatures", removedSignatures);
+        }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,139 @@
+package com.filemonitor.persistence;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 待重试传输队列的持久化
+ * 与记录文件放在一起，整体写入临时文件后原子替换，重启后无需全量扫描即可继续重试
+ */
+public class PendingTransferStore {
+    private static final Logger log = LoggerFactory.getLogger(PendingTransferStore.class);
+
+    private final String queueFile;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public static class PendingTransfer {
+        private String filePath;
+        private String mappingKey;
+        private int attempts;
+        private long nextAttemptTime;
+        private long firstFailureTime;
+        private String lastError;
+
+        public PendingTransfer() {}
+
+        public PendingTransfer(String filePath, String mappingKey) {
+            this.filePath = filePath;
+            this.mappingKey = mappingKey;
+            this.firstFailureTime = System.currentTimeMillis();
+        }
+
+        /**
+         * 复制一份，用于在锁外保存
+         */
+        public PendingTransfer(PendingTransfer other) {
+            this.filePath = other.filePath;
+            this.mappingKey = other.mappingKey;
+            this.attempts = other.attempts;
+            this.nextAttemptTime = other.nextAttemptTime;
+            this.firstFailureTime = other.firstFailureTime;
+            this.lastError = other.lastError;
+        }
+
+        public String getFilePath() {
+            return filePath;
+        }
+
+        public void setFilePath(String filePath) {
+            this.filePath = filePath;
+        }
+
+        public String getMappingKey() {
+            return mappingKey;
+        }
+
+        public void setMappingKey(String mappingKey) {
+            this.mappingKey = mappingKey;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public void setAttempts(int attempts) {
+            this.attempts = attempts;
+        }
+
+        public long getNextAttemptTime() {
+            return nextAttemptTime;
+        }
+
+        public void setNextAttemptTime(long nextAttemptTime) {
+            this.nextAttemptTime = nextAttemptTime;
+        }
+
+        public long getFirstFailureTime() {
+            return firstFailureTime;
+        }
+
+        public void setFirstFailureTime(long firstFailureTime) {
+            this.firstFailureTime = firstFailureTime;
+        }
+
+        public String getLastError() {
+            return lastError;
+        }
+
+        public void setLastError(String lastError) {
+            this.lastError = lastError;
+        }
+    }
+
+    public PendingTransferStore(String queueFile) {
+        this.queueFile = queueFile;
+    }
+
+    public List<PendingTransfer> load() {
+        File file = new File(queueFile);
+        if (!file.exists()) {
+            return new ArrayList<>();
+        }
+        try {
+            List<PendingTransfer> transfers = objectMapper.readValue(file, new TypeReference<List<PendingTransfer>>() {});
+            log.info("Loaded {} pending transfers", transfers.size());
+            return transfers;
+        } catch (IOException e) {
+            log.error("Error loading pending transfers: {}", e.getMessage(), e);
+            return new ArrayList<>();
+        }
+    }
+
+    public void save(Collection<PendingTransfer> transfers) {
+        Path target = Paths.get(queueFile);
+        Path temp = Paths.get(queueFile + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+                out.write(objectMapper.writeValueAsBytes(new ArrayList<>(transfers)));
+                out.getFD().sync();
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Saved {} pending transfers", transfers.size());
+        } catch (IOException e) {
+            log.error("Error saving pending transfers: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.filemonitor.persistence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 已处理文件记录的追加日志（JSON Lines）
+ * 每条记录追加一行，写线程把并发提交的记录合并为一批后统一fsync（group commit），
+ * 调用方在记录落盘后才返回；快照由FileRecordService定期生成，生成后旧日志即可丢弃
+ */
+class RecordJournal implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(RecordJournal.class);
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final PendingWrite SHUTDOWN = new PendingWrite(new byte[0]);
+
+    private final Path journalPath;
+    private final Path rotatedPath;
+    private final ObjectMapper objectMapper;
+    private final BlockingQueue<PendingWrite> writeQueue = new LinkedBlockingQueue<>();
+    private final AtomicLong entryCount = new AtomicLong();
+    private final Object channelLock = new Object();
+    private final Thread writerThread;
+    private FileChannel channel;
+    private volatile boolean closed;
+
+    RecordJournal(String journalFile, ObjectMapper objectMapper) throws IOException {
+        this.journalPath = Paths.get(journalFile);
+        this.rotatedPath = Paths.get(journalFile + ".old");
+        this.objectMapper = objectMapper;
+        this.channel = open(journalPath);
+
+        this.writerThread = new Thread(this::writeLoop, "record-journal-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * 依次重放轮转前和当前的日志
+     * 进程崩溃时最后一行可能只写了一半，解析失败的行会被跳过
+     */
+    long replay(Consumer<FileRecordService.FileRecord> consumer) throws IOException {
+        long replayed = replay(rotatedPath, consumer) + replay(journalPath, consumer);
+        entryCount.set(replayed);
+        return replayed;
+    }
+
+    /**
+     * 追加一条记录，落盘（fsync）后返回
+     */
+    void append(FileRecordService.FileRecord record) throws IOException {
+        if (closed) {
+            throw new IOException("Record journal is closed");
+        }
+        byte[] json = objectMapper.writeValueAsBytes(record);
+        byte[] line = new byte[json.length + 1];
+        System.arraycopy(json, 0, line, 0, json.length);
+        line[json.length] = '\n';
+
+        PendingWrite write = new PendingWrite(line);
+        writeQueue.add(write);
+        try {
+            write.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for journal commit", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error writing record journal", e.getCause());
+        }
+    }
+
+    /**
+     * 当前日志累计的记录条数（自上次轮转起）
+     */
+    long getEntryCount() {
+        return entryCount.get();
+    }
+
+    /**
+     * 把当前日志轮转为旧日志，之后的追加写入新的空日志
+     * 上次轮转的旧日志还没被丢弃（快照写入失败）时，把当前日志内容接到旧日志后面
+     */
+    void rotate() throws IOException {
+        synchronized (channelLock) {
+            channel.force(true);
+            channel.close();
+            if (Files.exists(rotatedPath)) {
+                try (FileChannel target = FileChannel.open(rotatedPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                     FileChannel source = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+                    long position = 0;
+                    long size = source.size();
+                    while (position < size) {
+                        position += source.transferTo(position, size - position, target);
+                    }
+                    target.force(true);
+                }
+                Files.delete(journalPath);
+            } else {
+                Files.move(journalPath, rotatedPath);
+            }
+            channel = open(journalPath);
+            entryCount.set(0);
+        }
+    }
+
+    /**
+     * 快照已包含旧日志中的全部记录，丢弃旧日志
+     */
+    void discardRotated() throws IOException {
+        Files.deleteIfExists(rotatedPath);
+    }
+
+    boolean hasRotated() {
+        return Files.exists(rotatedPath);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        writeQueue.add(SHUTDOWN);
+        try {
+            writerThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        PendingWrite leftover;
+        while ((leftover = writeQueue.poll()) != null) {
+            leftover.done.completeExceptionally(new IOException("Record journal is closed"));
+        }
+        synchronized (channelLock) {
+            if (channel.isOpen()) {
+                channel.force(true);
+                channel.close();
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>();
+        boolean stop = false;
+        while (!stop) {
+            try {
+                batch.add(writeQueue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            writeQueue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            stop = batch.remove(SHUTDOWN);
+
+            try {
+                synchronized (channelLock) {
+                    for (PendingWrite write : batch) {
+                        ByteBuffer buffer = ByteBuffer.wrap(write.line);
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                    }
+                    channel.force(false);
+                }
+                entryCount.addAndGet(batch.size());
+                for (PendingWrite write : batch) {
+                    write.done.complete(null);
+                }
+            } catch (IOException e) {
+                log.error("Error writing record journal: {}", e.getMessage(), e);
+                for (PendingWrite write : batch) {
+                    write.done.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+        log.debug("Record journal writer stopped");
+    }
+
+    private long replay(Path path, Consumer<FileRecordService.FileRecord> consumer) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        long count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    consumer.accept(objectMapper.readValue(line, FileRecordService.FileRecord.class));
+                    count++;
+                } catch (IOException e) {
+                    log.warn("Skipping corrupt journal entry in {}: {}", path, e.getMessage());
+                }
+            }
+        }
+        return count;
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        boolean needsNewline = false;
+        if (Files.exists(path)) {
+            try (FileChannel reader = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = reader.size();
+                if (size > 0) {
+                    ByteBuffer last = ByteBuffer.allocate(1);
+                    reader.read(last, size - 1);
+                    needsNewline = last.get(0) != '\n';
+                }
+            }
+        }
+        FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (needsNewline) {
+            // 崩溃时最后一行可能没写完整，补一个换行，避免新记录接在残缺行后面
+            channel.write(ByteBuffer.wrap(new byte[]{'\n'}));
+        }
+        return channel;
+    }
+
+    private static class PendingWrite {
+        private final byte[] line;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        PendingWrite(byte[] line) {
+            this.line = line;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.filemonitor.persistence;
+
+import com.filemonitor.util.BlockSignatures;
+import com.filemonitor.util.HashUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * 增量上传用的分块签名，与记录文件放在一起（记录文件名加.signatures的目录）
+ * 每条记录一个文件，文件名是记录键的指纹，文件内再保存完整的记录键以排除指纹冲突
+ */
+class SignatureStore {
+    private static final Logger log = LoggerFactory.getLogger(SignatureStore.class);
+    private static final String SUFFIX = ".sig";
+
+    private final Path directory;
+
+    SignatureStore(String directory) {
+        this.directory = Paths.get(directory);
+    }
+
+    /**
+     * @return 签名，不存在或无法读取时为null
+     */
+    BlockSignatures load(String key) {
+        File file = fileFor(key);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (!key.equals(in.readUTF())) {
+                return null;
+            }
+            return BlockSignatures.readFrom(in);
+        } catch (IOException e) {
+            log.warn("Discarding unreadable signatures {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 先写临时文件再原子替换
+     */
+    void save(String key, BlockSignatures signatures) throws IOException {
+        Files.createDirectories(directory);
+        Path target = fileFor(key).toPath();
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp.toFile())))) {
+            out.writeUTF(key);
+            signatures.writeTo(out);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    void remove(String key) throws IOException {
+        Files.deleteIfExists(fileFor(key).toPath());
+    }
+
+    /**
+     * 删除cutoff之前写入的签名，与记录的保留期一致
+     */
+    int removeOlderThan(long cutoff) {
+        File[] files = directory.toFile().listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int removed = 0;
+        for (File file : files) {
+            if (file.lastModified() < cutoff && file.delete()) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private File fileFor(String key) {
+        return directory.resolve(Long.toHexString(HashUtils.fingerprint64(key)) + SUFFIX).toFile();
+    }
+}
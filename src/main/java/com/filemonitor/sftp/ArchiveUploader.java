@@ -0,0 +1,139 @@
+package com.filemonitor.sftp;
+
+import com.filemonitor.util.HashUtils;
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 小文件批量上传
+ * 把一批文件打成一个tar流（可选gzip），通过exec通道交给远端tar解包，
+ * 一次往返代替每个文件各自的打开、写入、关闭
+ */
+class ArchiveUploader {
+    private static final Logger log = LoggerFactory.getLogger(ArchiveUploader.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long EXIT_POLL_INTERVAL = 50;
+
+    private final SftpChannelPool channelPool;
+    private final int connectTimeout;
+
+    ArchiveUploader(SftpChannelPool channelPool, int connectTimeout) {
+        this.channelPool = channelPool;
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * 上传一批文件并在远端解包
+     * @param entries 本地文件到归档内相对路径的映射
+     * @return 每个文件的十六进制SHA-256摘要
+     */
+    Map<File, String> upload(Map<File, String> entries, String remoteDirectory, boolean gzip, BandwidthLimiter limiter)
+            throws JSchException, IOException, InterruptedException {
+        String command = "mkdir -p " + quote(remoteDirectory)
+            + " && tar -x" + (gzip ? "z" : "") + "f - -C " + quote(remoteDirectory);
+        long start = System.currentTimeMillis();
+
+        // 借用池中的通道只为使用其会话，exec通道用完即关
+        SftpChannelPool.PooledChannel pooled = channelPool.borrow();
+        boolean broken = false;
+        ChannelExec exec = null;
+        try {
+            exec = (ChannelExec) pooled.getSession().openChannel("exec");
+            exec.setCommand(command);
+            ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            exec.setErrStream(errors);
+            OutputStream remote = exec.getOutputStream();
+            exec.connect(connectTimeout);
+
+            Map<File, String> hashes = new LinkedHashMap<>();
+            // 限速按压缩后实际发送的字节计
+            OutputStream out = new BufferedOutputStream(BandwidthLimiter.throttle(limiter, remote), BUFFER_SIZE);
+            if (gzip) {
+                out = new GZIPOutputStream(out, BUFFER_SIZE);
+            }
+            try (TarArchiveOutputStream tar = new TarArchiveOutputStream(out, StandardCharsets.UTF_8.name())) {
+                tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+                tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+                for (Map.Entry<File, String> entry : entries.entrySet()) {
+                    hashes.put(entry.getKey(), writeEntry(tar, entry.getKey(), entry.getValue()));
+                }
+            }
+
+            // 关闭输出流后远端tar读到EOF，等待其退出
+            while (!exec.isClosed()) {
+                if (!pooled.getSession().isConnected()) {
+                    broken = true;
+                    throw new IOException("SSH session lost while waiting for remote tar");
+                }
+                Thread.sleep(EXIT_POLL_INTERVAL);
+            }
+            int exitStatus = exec.getExitStatus();
+            if (exitStatus != 0) {
+                throw new IOException("Remote tar exited with status " + exitStatus + ": "
+                    + errors.toString(StandardCharsets.UTF_8.name()).trim());
+            }
+            log.info("Uploaded batch of {} files to {} in {} ms", entries.size(), remoteDirectory,
+                System.currentTimeMillis() - start);
+            return hashes;
+        } catch (JSchException e) {
+            broken = true;
+            throw e;
+        } catch (IOException e) {
+            broken = broken || !pooled.isAlive();
+            throw e;
+        } finally {
+            if (exec != null) {
+                exec.disconnect();
+            }
+            channelPool.release(pooled, broken);
+        }
+    }
+
+    private static String writeEntry(TarArchiveOutputStream tar, File file, String name) throws IOException {
+        long size = file.length();
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(size);
+        entry.setModTime(file.lastModified());
+
+        MessageDigest digest = HashUtils.newDigest();
+        tar.putArchiveEntry(entry);
+        try (InputStream in = new FileInputStream(file)) {
+            // 只写入头部声明的长度，文件在打包期间被追加的内容留给下次上传
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = size;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("File " + file.getPath() + " shrank while being archived");
+                }
+                digest.update(buffer, 0, read);
+                tar.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        tar.closeArchiveEntry();
+        return HashUtils.toHex(digest.digest());
+    }
+
+    private static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+}
@@ -0,0 +1,229 @@
+package com.filemonitor.sftp;
+
+import com.filemonitor.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 上传带宽限制
+ * 全局限速器由所有目的地的所有上传共用，每个映射另有一个以全局限速器为上级的限速器。
+ * 限速规则定义在带宽配置文件中，每行：
+ *   name|rate 或 name|HH:mm-HH:mm|rate
+ * name为global（全局）或映射名（映射名唯一，见file_mappings.txt的name=选项），rate为每秒字节数，可带K/M/G后缀，0表示不限。
+ * 带时间段的规则在该时间段内（可跨零点）覆盖不带时间段的规则，多条同时生效时以最后一条为准。
+ * 配置文件修改后自动重新加载，时间段的切换在检查间隔内生效
+ */
+public class BandwidthControl {
+    private static final Logger log = LoggerFactory.getLogger(BandwidthControl.class);
+    public static final String GLOBAL = "global";
+    private static final long CHECK_INTERVAL = 10000;
+
+    private final long defaultRate;
+    private final File ruleFile;
+    private final MetricsRegistry metrics;
+    private final LongAdder waitMillis;
+    private final BandwidthLimiter global;
+    private final Map<String, BandwidthLimiter> mappings = new ConcurrentHashMap<>();
+    private volatile List<Rule> rules = Collections.emptyList();
+    private long loadedModified;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param defaultLimit 配置文件中没有全局规则时的全局速率，如 10M，0表示不限
+     * @param ruleFile 带宽配置文件，为空表示只使用默认全局速率
+     */
+    public BandwidthControl(String defaultLimit, String ruleFile, MetricsRegistry metrics) {
+        this.defaultRate = parseRate(defaultLimit);
+        this.ruleFile = ruleFile == null || ruleFile.trim().isEmpty() ? null : new File(ruleFile.trim());
+        this.metrics = metrics;
+        this.waitMillis = metrics.counter("bandwidth.waitMillis");
+        this.global = new BandwidthLimiter(null, waitMillis);
+        metrics.gauge("bandwidth.limit." + GLOBAL, global.rateGauge());
+    }
+
+    /**
+     * 加载配置文件并应用当前时间的规则，配置文件有误时启动失败
+     */
+    public void start() throws IOException {
+        if (ruleFile != null) {
+            loadedModified = ruleFile.lastModified();
+            rules = readRules();
+        }
+        apply(LocalTime.now());
+        if (ruleFile != null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "bandwidth-control");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::check, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 映射上传使用的限速器，mapping为null时只受全局限制
+     */
+    public BandwidthLimiter forMapping(String mapping) {
+        if (mapping == null) {
+            return global;
+        }
+        return mappings.computeIfAbsent(mapping, name -> {
+            BandwidthLimiter limiter = new BandwidthLimiter(global, waitMillis);
+            limiter.setRate(resolve(name, LocalTime.now(), 0));
+            metrics.gauge("bandwidth.limit." + name, limiter.rateGauge());
+            return limiter;
+        });
+    }
+
+    /**
+     * 映射文件重新加载后调用：删除已不在配置中的映射的限速器和指标，进行中的上传继续使用原限速器
+     */
+    public void retainMappings(Collection<String> names) {
+        mappings.entrySet().removeIf(entry -> {
+            if (names.contains(entry.getKey())) {
+                return false;
+            }
+            metrics.removeGauge("bandwidth.limit." + entry.getKey(), entry.getValue().rateGauge());
+            return true;
+        });
+    }
+
+    private void check() {
+        try {
+            long modified = ruleFile.lastModified();
+            if (modified != loadedModified) {
+                loadedModified = modified;
+                rules = readRules();
+                log.info("Reloaded bandwidth rules from {}", ruleFile);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring invalid bandwidth rules in {}, keeping previous rules: {}", ruleFile, e.getMessage());
+        }
+        apply(LocalTime.now());
+    }
+
+    private void apply(LocalTime now) {
+        update(GLOBAL, global, resolve(GLOBAL, now, defaultRate));
+        mappings.forEach((name, limiter) -> update(name, limiter, resolve(name, now, 0)));
+    }
+
+    private static void update(String name, BandwidthLimiter limiter, long rate) {
+        long previous = limiter.getRate();
+        if (previous != rate) {
+            limiter.setRate(rate);
+            log.info("Bandwidth limit for {} changed from {} to {} bytes/s", name, previous, rate);
+        }
+    }
+
+    /**
+     * 当前时间生效的速率：最后一条生效的时间段规则，其次最后一条不带时间段的规则，都没有时为fallback
+     */
+    private long resolve(String name, LocalTime now, long fallback) {
+        Long base = null;
+        Long windowed = null;
+        for (Rule rule : rules) {
+            if (!rule.name.equals(name)) {
+                continue;
+            }
+            if (rule.from == null) {
+                base = rule.rate;
+            } else if (rule.activeAt(now)) {
+                windowed = rule.rate;
+            }
+        }
+        return windowed != null ? windowed : base != null ? base : fallback;
+    }
+
+    private List<Rule> readRules() throws IOException {
+        List<Rule> parsed = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(ruleFile.getPath()))) {
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            parsed.add(Rule.parse(line));
+        }
+        return parsed;
+    }
+
+    /**
+     * 解析速率：每秒字节数，可带K/M/G后缀（1024进制）
+     */
+    static long parseRate(String value) {
+        String text = value == null ? "" : value.trim().toUpperCase(Locale.ROOT);
+        if (text.isEmpty()) {
+            return 0;
+        }
+        long unit = 1;
+        char suffix = text.charAt(text.length() - 1);
+        if (suffix == 'K' || suffix == 'M' || suffix == 'G') {
+            unit = suffix == 'K' ? 1024L : suffix == 'M' ? 1024L * 1024 : 1024L * 1024 * 1024;
+            text = text.substring(0, text.length() - 1).trim();
+        }
+        long rate = (long) (Double.parseDouble(text) * unit);
+        if (rate < 0) {
+            throw new IllegalArgumentException("Invalid bandwidth rate: " + value);
+        }
+        return rate;
+    }
+
+    private static class Rule {
+        private final String name;
+        private final LocalTime from;   // 不带时间段时为null
+        private final LocalTime to;
+        private final long rate;
+
+        private Rule(String name, LocalTime from, LocalTime to, long rate) {
+            this.name = name;
+            this.from = from;
+            this.to = to;
+            this.rate = rate;
+        }
+
+        static Rule parse(String line) {
+            String[] parts = line.trim().split("\\|");
+            if (parts.length != 2 && parts.length != 3) {
+                throw new IllegalArgumentException("Invalid bandwidth line format: " + line);
+            }
+            String name = parts[0].trim();
+            long rate = parseRate(parts[parts.length - 1]);
+            if (parts.length == 2) {
+                return new Rule(name, null, null, rate);
+            }
+            String[] window = parts[1].trim().split("-");
+            if (window.length != 2) {
+                throw new IllegalArgumentException("Invalid time window, expected HH:mm-HH:mm: " + parts[1]);
+            }
+            return new Rule(name, LocalTime.parse(window[0].trim()), LocalTime.parse(window[1].trim()), rate);
+        }
+
+        boolean activeAt(LocalTime now) {
+            if (from.isBefore(to)) {
+                return !now.isBefore(from) && now.isBefore(to);
+            }
+            return !now.isBefore(from) || now.isBefore(to);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.filemonitor.sftp;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 令牌桶限速，同一个限速器的所有上传流共享一份带宽
+ * 写入前按字节数预约令牌，令牌不足时预约仍然成功（记为欠额），调用方按欠额等待；
+ * 并发的通道按预约先后轮流获得带宽，不会各自按全额速率发送。
+ * 有上级限速器时（映射的限速器以全局限速器为上级）同时从两级预约，按较长的等待时间等待
+ */
+public class BandwidthLimiter {
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);  // 空闲后最多积攒的令牌（按时间计）
+    private static final int CHUNK_SIZE = 16 * 1024;   // 每次预约的最大字节数，使各通道交替发送
+
+    private final BandwidthLimiter parent;
+    private final LongAdder waitMillis;
+    private final LongSupplier rateGauge = this::getRate;
+    private long rate;      // 每秒字节数，0表示不限
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+
+    /**
+     * @param parent 上级限速器，可以为null
+     * @param waitMillis 累计限速等待时间（毫秒），可以为null
+     */
+    BandwidthLimiter(BandwidthLimiter parent, LongAdder waitMillis) {
+        this.parent = parent;
+        this.waitMillis = waitMillis;
+    }
+
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    /**
+     * 当前速率的指标，同一个限速器总是返回同一个实例，便于注销
+     */
+    LongSupplier rateGauge() {
+        return rateGauge;
+    }
+
+    /**
+     * 调整速率，立即对之后的预约生效
+     * @param rate 每秒字节数，0表示不限
+     */
+    public synchronized void setRate(long rate) {
+        rate = Math.max(0, rate);
+        if (rate == this.rate) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (this.rate > 0 && rate > 0) {
+            refill(now);
+            tokens = Math.min(tokens, capacity(rate));
+        } else {
+            tokens = 0;
+        }
+        refilledAt = now;
+        this.rate = rate;
+    }
+
+    /**
+     * 获取发送bytes字节的许可，必要时等待
+     */
+    public void acquire(int bytes) throws InterruptedException {
+        long wait = 0;
+        for (BandwidthLimiter limiter = this; limiter != null; limiter = limiter.parent) {
+            wait = Math.max(wait, limiter.reserve(bytes));
+        }
+        if (wait > 0) {
+            if (waitMillis != null) {
+                waitMillis.add(TimeUnit.NANOSECONDS.toMillis(wait));
+            }
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * 预约令牌
+     * @return 需要等待的纳秒数
+     */
+    private synchronized long reserve(int bytes) {
+        if (rate <= 0) {
+            return 0;
+        }
+        refill(System.nanoTime());
+        tokens -= bytes;
+        return tokens >= 0 ? 0 : (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / rate);
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity(rate), tokens + (double) (now - refilledAt) * rate / TimeUnit.SECONDS.toNanos(1));
+        refilledAt = now;
+    }
+
+    private static double capacity(long rate) {
+        return Math.max(CHUNK_SIZE, (double) rate * BURST_NANOS / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * 包装上传输出流，limiter为null时原样返回
+     */
+    static OutputStream throttle(BandwidthLimiter limiter, OutputStream out) {
+        return limiter == null ? out : new ThrottledOutputStream(out, limiter);
+    }
+
+    private static class ThrottledOutputStream extends FilterOutputStream {
+        private final BandwidthLimiter limiter;
+
+        ThrottledOutputStream(OutputStream out, BandwidthLimiter limiter) {
+            super(out);
+            this.limiter = limiter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            acquire(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, CHUNK_SIZE);
+                acquire(n);
+                out.write(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void acquire(int bytes) throws IOException {
+            try {
+                limiter.acquire(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for upload bandwidth");
+            }
+        }
+    }
+}
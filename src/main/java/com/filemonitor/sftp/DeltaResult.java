@@ -0,0 +1,51 @@
+package com.filemonitor.sftp;
+
+import com.filemonitor.util.BlockSignatures;
+
+/**
+ * 一次增量上传的结果
+ */
+public class DeltaResult {
+    private final String fileHash;
+    private final long length;
+    private final long sentBytes;
+    private final boolean appended;
+    private final BlockSignatures signatures;
+
+    DeltaResult(String fileHash, long length, long sentBytes, boolean appended, BlockSignatures signatures) {
+        this.fileHash = fileHash;
+        this.length = length;
+        this.sentBytes = sentBytes;
+        this.appended = appended;
+        this.signatures = signatures;
+    }
+
+    /**
+     * 远程文件现在内容的十六进制SHA-256摘要
+     */
+    public String getFileHash() {
+        return fileHash;
+    }
+
+    /**
+     * 上传的内容长度，文件在上传期间继续增长时后续部分不包含在内
+     */
+    public long getLength() {
+        return length;
+    }
+
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * 是否走了只追加的快速路径
+     */
+    public boolean isAppended() {
+        return appended;
+    }
+
+    public BlockSignatures getSignatures() {
+        return signatures;
+    }
+}
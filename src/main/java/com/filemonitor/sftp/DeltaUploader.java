@@ -0,0 +1,305 @@
+package com.filemonitor.sftp;
+
+import com.filemonitor.util.BlockSignatures;
+import com.filemonitor.util.HashUtils;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.BitSet;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 增量上传：远程文件是上次上传的内容时，只发送本地变化的部分
+ * 本地文件前面部分的摘要与上次记录的摘要一致时视为只追加，从上次的长度续写；
+ * 否则按上次的分块签名逐块比较，把变化的块写到远程文件的对应偏移：远程文件先改名为临时文件，
+ * 改写完成后再改回原名，变化的块超过一半时改为整体上传；改写中途失败时目标文件已不存在，
+ * 删除临时文件后同样由调用方立即整体上传，而不是等重试。
+ * 远程文件大小与上次记录不一致、本地文件变短或没有可用签名时不适用，由调用方整体上传
+ */
+class DeltaUploader {
+    private static final Logger log = LoggerFactory.getLogger(DeltaUploader.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final double MAX_CHANGED_FRACTION = 0.5;   // 变化的块超过这个比例时改为整体上传
+    // 改写中的临时文件；与整体上传的.part不同名，中断后不会被当作可续传的文件
+    static final String PATCH_SUFFIX = ".delta" + SftpService.PART_SUFFIX;
+
+    private final SftpChannelPool channelPool;
+
+    DeltaUploader(SftpChannelPool channelPool) {
+        this.channelPool = channelPool;
+    }
+
+    /**
+     * @param previousSize 上次上传的长度
+     * @param previousHash 上次上传内容的十六进制摘要
+     * @param previous 上次上传内容的分块签名，可以为null（只能走追加路径）
+     * @param beforeRewrite 第一次改写远程文件之前调用，返回false时放弃增量上传
+     * @param limiter 上传限速器，null表示不限速
+     * @return 上传结果，不适用增量上传时为null
+     */
+    DeltaResult upload(File localFile, String remoteFilePath, long previousSize, String previousHash,
+                       BlockSignatures previous, BooleanSupplier beforeRewrite, BandwidthLimiter limiter)
+            throws JSchException, SftpException, IOException, InterruptedException {
+        SftpChannelPool.PooledChannel pooled = channelPool.borrow();
+        boolean broken = false;
+        try {
+            ChannelSftp channelSftp = pooled.getChannel();
+            long remoteSize;
+            try {
+                remoteSize = channelSftp.stat(remoteFilePath).getSize();
+            } catch (SftpException e) {
+                if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                    // 上次改写中断时目标文件还停留在临时文件名上，整体上传会重新生成目标文件
+                    removeQuietly(channelSftp, remoteFilePath + PATCH_SUFFIX);
+                    return null;
+                }
+                throw e;
+            }
+            long length = localFile.length();
+            if (remoteSize != previousSize || length < previousSize) {
+                log.debug("Delta upload not applicable to {}: remote {} bytes, recorded {}, local {}",
+                    remoteFilePath, remoteSize, previousSize, length);
+                return null;
+            }
+
+            DeltaResult result = append(channelSftp, localFile, remoteFilePath, length, previousSize, previousHash, previous,
+                limiter);
+            if (result == null && previous != null) {
+                try {
+                    result = patch(channelSftp, localFile, remoteFilePath, length, remoteSize, previous,
+                        beforeRewrite, limiter);
+                } catch (PatchFailedException e) {
+                    Throwable cause = e.getCause();
+                    broken = cause instanceof SftpException
+                        ? SftpService.isConnectionLost((SftpException) cause, pooled)
+                        : !pooled.isAlive();
+                    log.error("Patching {} failed after the remote file was moved aside, {} is missing until "
+                        + "the full upload completes: {}", localFile.getPath(), remoteFilePath, cause.getMessage(), cause);
+                    if (!broken) {
+                        removeQuietly(channelSftp, remoteFilePath + PATCH_SUFFIX);
+                    }
+                    return null;
+                }
+            }
+            if (result == null) {
+                return null;
+            }
+            long uploadedSize = channelSftp.stat(remoteFilePath).getSize();
+            if (uploadedSize != result.getLength()) {
+                throw new IOException("Remote size " + uploadedSize + " does not match local size " + result.getLength());
+            }
+            return result;
+        } catch (SftpException e) {
+            broken = SftpService.isConnectionLost(e, pooled);
+            throw e;
+        } catch (IOException e) {
+            broken = !pooled.isAlive();
+            throw e;
+        } finally {
+            channelPool.release(pooled, broken);
+        }
+    }
+
+    /**
+     * 只追加的快速路径：读一遍前previousSize字节核对摘要，一致时把之后的内容续写到远程文件末尾
+     * 上次的签名中完整落在前面部分的块直接沿用，只为新增部分生成签名
+     */
+    private DeltaResult append(ChannelSftp channelSftp, File localFile, String remoteFilePath, long length,
+                               long previousSize, String previousHash, BlockSignatures previous,
+                               BandwidthLimiter limiter)
+            throws SftpException, IOException {
+        MessageDigest digest = HashUtils.newDigest();
+        BlockSignatures signatures = previous != null
+            ? previous.copyPrefix(previousSize)
+            : new BlockSignatures(BlockSignatures.blockSizeFor(length));
+        long signedLength = signatures.getLength();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(localFile)) {
+            long position = 0;
+            while (position < previousSize) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, previousSize - position));
+                if (read < 0) {
+                    throw new EOFException("Unexpected end of file " + localFile.getPath());
+                }
+                digest.update(buffer, 0, read);
+                if (position + read > signedLength) {
+                    int skip = (int) Math.max(0, signedLength - position);
+                    signatures.update(buffer, skip, read - skip);
+                }
+                position += read;
+            }
+            if (!HashUtils.toHex(cloneDigest(digest).digest()).equals(previousHash)) {
+                return null;
+            }
+
+            try (OutputStream out = BandwidthLimiter.throttle(limiter,
+                    channelSftp.put(remoteFilePath, null, ChannelSftp.RESUME, 0))) {
+                while (position < length) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, length - position));
+                    if (read < 0) {
+                        throw new EOFException("Unexpected end of file " + localFile.getPath());
+                    }
+                    digest.update(buffer, 0, read);
+                    signatures.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    position += read;
+                }
+            }
+        }
+        String fileHash = HashUtils.toHex(digest.digest());
+        signatures.finish().setFileHash(fileHash);
+        log.info("Appended {} bytes to {} (previously {} bytes)", length - previousSize, remoteFilePath, previousSize);
+        return new DeltaResult(fileHash, length, length - previousSize, true, signatures);
+    }
+
+    /**
+     * 按块比较后只发送变化的块：第一遍读本地文件找出变化的块，变化超过一半时不如整体上传；
+     * 否则把远程文件改名为临时文件，在临时文件上改写变化的块，完成后改回原名。
+     * 读取方看到的要么是完整的旧内容，要么是完整的新内容，改写期间目标文件暂时不存在
+     * @throws PatchFailedException 改名之后失败（写入出错、本地文件在改写期间变化），目标文件已不存在
+     */
+    private DeltaResult patch(ChannelSftp channelSftp, File localFile, String remoteFilePath, long length,
+                              long remoteSize, BlockSignatures previous, BooleanSupplier beforeRewrite,
+                              BandwidthLimiter limiter)
+            throws SftpException, IOException {
+        int blockSize = previous.getBlockSize();
+        BlockSignatures signatures = new BlockSignatures(blockSize);
+        MessageDigest digest = HashUtils.newDigest();
+        BitSet changed = new BitSet();
+        long lastModified = localFile.lastModified();
+        byte[] block = new byte[blockSize];
+        int blocks = 0;
+        try (InputStream in = new FileInputStream(localFile)) {
+            for (; (long) blocks * blockSize < length; blocks++) {
+                long offset = (long) blocks * blockSize;
+                int size = (int) Math.min(blockSize, length - offset);
+                readFully(in, block, size, localFile);
+                digest.update(block, 0, size);
+                signatures.update(block, 0, size);
+                if (size < blockSize) {
+                    signatures.finish();
+                }
+                if (!previous.sameBlock(blocks, signatures)) {
+                    changed.set(blocks);
+                }
+            }
+        }
+        String fileHash = HashUtils.toHex(digest.digest());
+        signatures.finish().setFileHash(fileHash);
+        if (changed.isEmpty()) {
+            log.info("Patched {}: no blocks changed", remoteFilePath);
+            return new DeltaResult(fileHash, length, 0, false, signatures);
+        }
+        if (changed.cardinality() > blocks * MAX_CHANGED_FRACTION) {
+            log.debug("Delta upload not worthwhile for {}: {} of {} blocks changed", remoteFilePath,
+                changed.cardinality(), blocks);
+            return null;
+        }
+        if (!beforeRewrite.getAsBoolean()) {
+            return null;
+        }
+
+        String patchPath = remoteFilePath + PATCH_SUFFIX;
+        channelSftp.rename(remoteFilePath, patchPath);
+        long sent = 0;
+        try {
+            sent = writeChanged(channelSftp, localFile, patchPath, length, remoteSize, blockSize, changed, block, limiter);
+            if (localFile.lastModified() != lastModified || localFile.length() != length) {
+                throw new IOException("Local file " + localFile.getPath() + " changed during delta upload");
+            }
+            channelSftp.rename(patchPath, remoteFilePath);
+        } catch (SftpException | IOException | RuntimeException e) {
+            throw new PatchFailedException(e);
+        }
+        log.info("Patched {}: sent {} of {} bytes", remoteFilePath, sent, length);
+        return new DeltaResult(fileHash, length, sent, false, signatures);
+    }
+
+    /**
+     * 把变化的块按连续区段写到临时文件的对应偏移
+     * @return 发送的字节数
+     */
+    private static long writeChanged(ChannelSftp channelSftp, File localFile, String patchPath, long length,
+                                     long remoteSize, int blockSize, BitSet changed, byte[] block,
+                                     BandwidthLimiter limiter)
+            throws SftpException, IOException {
+        long sent = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(localFile, "r")) {
+            for (int index = changed.nextSetBit(0); index >= 0; ) {
+                int runEnd = changed.nextClearBit(index);
+                long offset = (long) index * blockSize;
+                long end = Math.min(length, (long) runEnd * blockSize);
+                raf.seek(offset);
+                try (OutputStream out = BandwidthLimiter.throttle(limiter,
+                        openAt(channelSftp, patchPath, remoteSize, offset))) {
+                    for (long position = offset; position < end; ) {
+                        int size = (int) Math.min(block.length, end - position);
+                        raf.readFully(block, 0, size);
+                        out.write(block, 0, size);
+                        position += size;
+                    }
+                }
+                sent += end - offset;
+                remoteSize = Math.max(remoteSize, end);
+                index = changed.nextSetBit(runEnd);
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * 从远程文件的position处开始写入
+     * JSch没有按任意偏移写入的接口；APPEND模式打开时不截断文件，写入位置为远程文件当前大小加offset参数
+     */
+    private static OutputStream openAt(ChannelSftp channelSftp, String remoteFilePath, long remoteSize, long position)
+            throws SftpException {
+        return channelSftp.put(remoteFilePath, null, ChannelSftp.APPEND, position - remoteSize);
+    }
+
+    private static void removeQuietly(ChannelSftp channelSftp, String remoteFilePath) {
+        try {
+            channelSftp.rm(remoteFilePath);
+        } catch (SftpException e) {
+            // 不存在或无法删除都不影响之后的整体上传
+        }
+    }
+
+    /**
+     * 远程文件改名为临时文件之后的失败
+     */
+    private static class PatchFailedException extends IOException {
+        PatchFailedException(Exception cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    private static MessageDigest cloneDigest(MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(HashUtils.ALGORITHM + " digest cannot be cloned", e);
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length, File file) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(buffer, offset, length - offset);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file " + file.getPath());
+            }
+            offset += read;
+        }
+    }
+}
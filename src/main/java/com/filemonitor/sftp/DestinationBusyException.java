@@ -0,0 +1,10 @@
+package com.filemonitor.sftp;
+
+/**
+ * 镜像目的地同时进行的上传已达上限，本次没有上传，由调用方稍后重试
+ */
+public class DestinationBusyException extends RuntimeException {
+    public DestinationBusyException(String destination) {
+        super("Too many uploads in flight to destination " + destination);
+    }
+}
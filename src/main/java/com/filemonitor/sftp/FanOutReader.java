@@ -0,0 +1,235 @@
+package com.filemonitor.sftp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 一次读取本地文件，同时分发给多个目的地的上传流
+ * 每个目的地一个输入流（tap），读取线程按最快的目的地的速度前进；
+ * 某个目的地落后超过MAX_LAG_CHUNKS块时与共享读取脱离，之后从本地文件的对应位置自行读取，
+ * 慢的目的地既不会拖慢其他目的地，也不需要从头重传
+ */
+class FanOutReader {
+    private static final Logger log = LoggerFactory.getLogger(FanOutReader.class);
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_LAG_CHUNKS = 64;  // 每个目的地最多缓冲4MB
+
+    private final File file;
+    private final List<Tap> taps = new ArrayList<>();
+
+    FanOutReader(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 新建一个目的地的输入流，必须在run之前调用；使用方读完或出错时必须关闭
+     */
+    synchronized InputStream newTap() {
+        Tap tap = new Tap();
+        taps.add(tap);
+        return tap;
+    }
+
+    /**
+     * 在调用线程上读取文件，直到文件结束或所有目的地都已脱离
+     */
+    void run() throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            while (true) {
+                byte[] chunk = readChunk(in);
+                synchronized (this) {
+                    if (chunk == null) {
+                        for (Tap tap : taps) {
+                            if (tap.isAttached()) {
+                                tap.eof = true;
+                            }
+                        }
+                        notifyAll();
+                        return;
+                    }
+                    // 所有仍在共享读取的目的地都缓冲满时，等待最快的一个
+                    while (allAttachedFull()) {
+                        wait();
+                    }
+                    if (!anyAttached()) {
+                        return;
+                    }
+                    for (Tap tap : taps) {
+                        if (!tap.isAttached()) {
+                            continue;
+                        }
+                        if (tap.queue.size() >= MAX_LAG_CHUNKS) {
+                            tap.detached = true;
+                            log.debug("Destination fell {} chunks behind on {}, reading on its own from byte {}",
+                                MAX_LAG_CHUNKS, file.getPath(), tap.received);
+                        } else {
+                            tap.queue.add(chunk);
+                            tap.received += chunk.length;
+                        }
+                    }
+                    notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(new IOException("Interrupted while reading " + file.getPath(), e));
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    private byte[] readChunk(InputStream in) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        int length = 0;
+        while (length < buffer.length) {
+            int read = in.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        if (length == 0) {
+            return null;
+        }
+        return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+    }
+
+    private boolean anyAttached() {
+        for (Tap tap : taps) {
+            if (tap.isAttached()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean allAttachedFull() {
+        boolean attached = false;
+        for (Tap tap : taps) {
+            if (tap.isAttached()) {
+                if (tap.queue.size() < MAX_LAG_CHUNKS) {
+                    return false;
+                }
+                attached = true;
+            }
+        }
+        return attached;
+    }
+
+    private synchronized void fail(IOException error) {
+        for (Tap tap : taps) {
+            if (tap.isAttached()) {
+                tap.error = error;
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * 一个目的地的输入流：先消费共享读取分发的数据块，脱离后从本地文件自行读取
+     */
+    private class Tap extends InputStream {
+        private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+        private long received;     // 已分发给该目的地的字节数
+        private boolean detached;
+        private boolean eof;
+        private boolean closed;
+        private IOException error;
+
+        private byte[] current;
+        private int position;
+        private InputStream own;   // 脱离后自行读取本地文件
+
+        private boolean isAttached() {
+            return !detached && !closed && !eof && error == null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (own != null) {
+                return own.read(buffer, offset, length);
+            }
+            if (current == null || position == current.length) {
+                if (!nextChunk()) {
+                    return own != null ? own.read(buffer, offset, length) : -1;
+                }
+            }
+            int n = Math.min(length, current.length - position);
+            System.arraycopy(current, position, buffer, offset, n);
+            position += n;
+            return n;
+        }
+
+        /**
+         * 取下一块数据；共享数据已取完且已脱离时切换为自行读取，返回false表示没有更多共享数据
+         */
+        private boolean nextChunk() throws IOException {
+            long resumeAt;
+            synchronized (FanOutReader.this) {
+                while (queue.isEmpty() && !detached && !eof && error == null) {
+                    try {
+                        FanOutReader.this.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for " + file.getPath(), e);
+                    }
+                }
+                if (!queue.isEmpty()) {
+                    current = queue.poll();
+                    position = 0;
+                    // 缓冲有了空位，唤醒可能在等待的读取线程
+                    FanOutReader.this.notifyAll();
+                    return true;
+                }
+                if (error != null) {
+                    throw error;
+                }
+                if (eof) {
+                    return false;
+                }
+                resumeAt = received;
+            }
+            FileInputStream in = new FileInputStream(file);
+            try {
+                in.getChannel().position(resumeAt);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            own = in;
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (FanOutReader.this) {
+                closed = true;
+                queue.clear();
+                FanOutReader.this.notifyAll();
+            }
+            if (own != null) {
+                own.close();
+            }
+        }
+    }
+}
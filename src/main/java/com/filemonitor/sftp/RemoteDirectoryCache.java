@@ -0,0 +1,110 @@
+package com.filemonitor.sftp;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 远程目录存在性缓存，每个SSH会话一份
+ * 已确认存在的目录不再往返确认；多个上传同时需要同一个新目录时只有一个线程去创建，其余等待其结果
+ */
+class RemoteDirectoryCache {
+    private static final Logger log = LoggerFactory.getLogger(RemoteDirectoryCache.class);
+
+    private final Set<String> knownDirectories = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, CompletableFuture<Void>> creating = new ConcurrentHashMap<>();
+
+    /**
+     * 确保目录（及其上级目录）存在
+     */
+    void ensureDirectory(ChannelSftp channelSftp, String directory) throws SftpException, InterruptedException {
+        if (directory.isEmpty() || directory.equals("/") || knownDirectories.contains(directory)) {
+            return;
+        }
+
+        CompletableFuture<Void> mine = new CompletableFuture<>();
+        CompletableFuture<Void> existing = creating.putIfAbsent(directory, mine);
+        if (existing != null) {
+            await(existing);
+            return;
+        }
+        try {
+            create(channelSftp, directory);
+            knownDirectories.add(directory);
+            mine.complete(null);
+        } catch (SftpException | InterruptedException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            creating.remove(directory, mine);
+        }
+    }
+
+    /**
+     * 远程目录可能已被删除，清除该目录、其上级和下级目录的缓存
+     */
+    void invalidate(String directory) {
+        String prefix = directory + "/";
+        knownDirectories.removeIf(known -> known.equals(directory) || known.startsWith(prefix)
+            || directory.startsWith(known + "/"));
+    }
+
+    private void create(ChannelSftp channelSftp, String directory) throws SftpException, InterruptedException {
+        if (isDirectory(channelSftp, directory)) {
+            return;
+        }
+        ensureDirectory(channelSftp, parentOf(directory));
+        log.debug("Creating remote directory: {}", directory);
+        try {
+            channelSftp.mkdir(directory);
+        } catch (SftpException e) {
+            // 其他进程可能刚好创建了同一目录
+            if (!isDirectory(channelSftp, directory)) {
+                throw e;
+            }
+        }
+    }
+
+    private static boolean isDirectory(ChannelSftp channelSftp, String directory) throws SftpException {
+        try {
+            SftpATTRS attrs = channelSftp.stat(directory);
+            if (!attrs.isDir()) {
+                throw new SftpException(ChannelSftp.SSH_FX_FAILURE, directory + " exists but is not a directory");
+            }
+            return true;
+        } catch (SftpException e) {
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private static void await(CompletableFuture<Void> future) throws SftpException, InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SftpException) {
+                throw (SftpException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw new SftpException(ChannelSftp.SSH_FX_FAILURE, "Directory creation was interrupted");
+            }
+            throw new IllegalStateException("Error creating remote directory", cause);
+        }
+    }
+
+    static String parentOf(String path) {
+        int index = path.lastIndexOf('/');
+        return index <= 0 ? "" : path.substring(0, index);
+    }
+}
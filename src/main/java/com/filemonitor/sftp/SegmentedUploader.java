@@ -0,0 +1,226 @@
+package com.filemonitor.sftp;
+
+import com.filemonitor.config.SftpConfig;
+import com.filemonitor.util.HashUtils;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 大文件分段并行上传
+ * 单个SFTP通道受窗口大小限制，高延迟链路上跑不满带宽；把文件按字节区间切段，
+ * 每段用独立的池化通道写入远程临时文件的对应偏移，全部完成后校验大小并原子重命名为目标文件。
+ * 上传记录需要整个文件的SHA-256，而各段并行读取的数据无法按顺序送入同一个摘要，
+ * 因此调用线程另外顺序读一遍文件计算摘要：本地读取量是单流上传的两倍，与各段上传同时进行
+ */
+class SegmentedUploader {
+    private static final Logger log = LoggerFactory.getLogger(SegmentedUploader.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long RETRY_DELAY = 1000;
+    private static final String SEGMENTS_SUFFIX = ".segments" + SftpService.PART_SUFFIX;
+
+    private final SftpService sftpService;
+    private final SftpChannelPool channelPool;
+    private final long threshold;
+    private final long segmentSize;
+    private final int maxAttempts;
+    private final ThreadPoolExecutor executor;
+
+    SegmentedUploader(SftpConfig sftpConfig, SftpService sftpService, SftpChannelPool channelPool) {
+        this.sftpService = sftpService;
+        this.channelPool = channelPool;
+        this.threshold = sftpConfig.getSegmentThreshold();
+        this.segmentSize = Math.max(BUFFER_SIZE, sftpConfig.getSegmentSize());
+        this.maxAttempts = Math.max(0, sftpConfig.getSegmentRetries()) + 1;
+
+        int threads = Math.max(1, sftpConfig.getSegmentParallelism());
+        AtomicInteger counter = new AtomicInteger(1);
+        this.executor = new ThreadPoolExecutor(
+            threads, threads, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            r -> {
+                Thread thread = new Thread(r, "sftp-segment-" + counter.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    boolean accepts(long fileSize) {
+        return threshold > 0 && fileSize > threshold && fileSize > segmentSize;
+    }
+
+    /**
+     * 分段上传文件，各段在后台线程并行写入，调用线程同时顺序读取文件计算SHA-256
+     * @return 文件内容的十六进制SHA-256摘要
+     */
+    String upload(File localFile, String remoteFilePath, BandwidthLimiter limiter)
+            throws JSchException, SftpException, IOException, InterruptedException {
+        long fileSize = localFile.length();
+        // 与单流上传的临时文件区分开：分段临时文件一开始就是完整大小，不能按单流方式续传
+        String partPath = remoteFilePath + SEGMENTS_SUFFIX;
+        long start = System.currentTimeMillis();
+
+        withChannel(pooled -> {
+            sftpService.createRemoteDirectories(pooled, remoteFilePath);
+            // 先把临时文件撑到完整大小（最后一个字节），之后各段按偏移写入时文件大小保持不变
+            try (OutputStream out = pooled.getChannel().put(partPath, null, ChannelSftp.OVERWRITE, fileSize - 1)) {
+                out.write(0);
+            } catch (SftpException e) {
+                if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                    pooled.getDirectoryCache().invalidate(RemoteDirectoryCache.parentOf(remoteFilePath));
+                }
+                throw e;
+            }
+        });
+
+        List<Future<?>> segments = new ArrayList<>();
+        for (long offset = 0; offset < fileSize; offset += segmentSize) {
+            long segmentStart = offset;
+            long length = Math.min(segmentSize, fileSize - offset);
+            segments.add(executor.submit(() -> {
+                uploadSegment(localFile, partPath, fileSize, segmentStart, length, limiter);
+                return null;
+            }));
+        }
+
+        String fileHash;
+        try {
+            // 与各段上传同时进行，上传记录和增量比对都依赖整个文件的SHA-256，不能改用按段的摘要
+            fileHash = digest(localFile);
+            for (Future<?> segment : segments) {
+                segment.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SftpException) {
+                throw (SftpException) cause;
+            }
+            if (cause instanceof JSchException) {
+                throw (JSchException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Segment upload failed", cause);
+        } finally {
+            for (Future<?> segment : segments) {
+                segment.cancel(true);
+            }
+        }
+
+        withChannel(pooled -> {
+            ChannelSftp channel = pooled.getChannel();
+            long remoteSize = channel.stat(partPath).getSize();
+            if (remoteSize != fileSize) {
+                throw new IOException("Remote size " + remoteSize + " does not match local size " + fileSize);
+            }
+            sftpService.replaceRemoteFile(channel, partPath, remoteFilePath);
+        });
+
+        log.info("File uploaded in {} segments in {} ms: {} -> {}", segments.size(),
+            System.currentTimeMillis() - start, localFile.getPath(), remoteFilePath);
+        return fileHash;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 上传一段，失败时换一个通道重试
+     */
+    private void uploadSegment(File localFile, String partPath, long fileSize, long segmentStart, long length,
+                               BandwidthLimiter limiter)
+            throws JSchException, SftpException, IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                withChannel(pooled -> writeSegment(pooled.getChannel(), localFile, partPath, fileSize, segmentStart, length,
+                    limiter));
+                return;
+            } catch (JSchException | SftpException | IOException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                log.warn("Segment at offset {} of {} failed (attempt {}), retrying: {}",
+                    segmentStart, localFile.getPath(), attempt, e.getMessage());
+                Thread.sleep(RETRY_DELAY * attempt);
+            }
+        }
+    }
+
+    /**
+     * JSch的RESUME模式不截断文件，并以远程文件当前大小为基准加上传入的偏移；
+     * 临时文件已预先撑到完整大小，因此传入 segmentStart - fileSize 即可写到绝对偏移segmentStart
+     */
+    private static void writeSegment(ChannelSftp channel, File localFile, String partPath,
+                                     long fileSize, long segmentStart, long length, BandwidthLimiter limiter)
+            throws SftpException, IOException {
+        try (RandomAccessFile in = new RandomAccessFile(localFile, "r");
+             OutputStream out = BandwidthLimiter.throttle(limiter,
+                 channel.put(partPath, null, ChannelSftp.RESUME, segmentStart - fileSize))) {
+            in.seek(segmentStart);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = length;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("File " + localFile.getPath() + " shrank during upload");
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    private static String digest(File localFile) throws IOException {
+        MessageDigest digest = HashUtils.newDigest();
+        try (InputStream in = new FileInputStream(localFile)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HashUtils.toHex(digest.digest());
+    }
+
+    private void withChannel(ChannelTask task) throws JSchException, SftpException, IOException, InterruptedException {
+        SftpChannelPool.PooledChannel pooled = channelPool.borrow();
+        boolean broken = false;
+        try {
+            task.run(pooled);
+        } catch (SftpException e) {
+            broken = SftpService.isConnectionLost(e, pooled);
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            broken = true;
+            throw e;
+        } finally {
+            channelPool.release(pooled, broken);
+        }
+    }
+
+    private interface ChannelTask {
+        void run(SftpChannelPool.PooledChannel pooled) throws SftpException, IOException, InterruptedException;
+    }
+}
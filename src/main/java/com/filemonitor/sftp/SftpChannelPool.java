@@ -0,0 +1,307 @@
+package com.filemonitor.sftp;
+
+import com.filemonitor.config.SftpConfig;
+import com.filemonitor.metrics.LatencyHistogram;
+import com.jcraft.jsch.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.*;
+
+/**
+ * SFTP连接池
+ * 维护有限数量的长连接SSH会话，每个会话上复用多个SFTP通道，
+ * 上传线程按次借用通道，避免每个文件都重新握手
+ */
+public class SftpChannelPool {
+    private static final Logger log = LoggerFactory.getLogger(SftpChannelPool.class);
+
+    private final SftpConfig sftpConfig;
+    private final Semaphore permits;
+    private final List<PooledSession> sessions = new ArrayList<>();
+    private final Deque<PooledChannel> idleChannels = new ArrayDeque<>();
+    private final ScheduledExecutorService evictor;
+    private final LatencyHistogram connectTime;
+    private JSch jsch;
+    private volatile boolean closed;
+
+    public SftpChannelPool(SftpConfig sftpConfig, LatencyHistogram connectTime) {
+        this.sftpConfig = sftpConfig;
+        this.connectTime = connectTime;
+        this.permits = new Semaphore(Math.max(1, sftpConfig.getMaxSessions() * sftpConfig.getChannelsPerSession()), true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sftp-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, sftpConfig.getIdleTimeout() / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 借用一个可用的SFTP通道，池已满时阻塞等待
+     */
+    public PooledChannel borrow() throws JSchException, InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("SFTP channel pool is closed");
+        }
+        permits.acquire();
+        try {
+            while (true) {
+                PooledChannel idle;
+                synchronized (this) {
+                    idle = idleChannels.pollFirst();
+                }
+                if (idle == null) {
+                    return openChannel();
+                }
+                if (validate(idle)) {
+                    return idle;
+                }
+                log.debug("Discarding broken SFTP channel");
+                destroy(idle);
+            }
+        } catch (JSchException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 归还通道，broken为true时通道（及其已断开的会话）将被关闭而不再复用
+     */
+    public void release(PooledChannel channel, boolean broken) {
+        try {
+            if (broken || closed || !channel.isAlive()) {
+                destroy(channel);
+            } else {
+                channel.lastUsed = System.currentTimeMillis();
+                synchronized (this) {
+                    idleChannels.offerFirst(channel);
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * 关闭连接池及所有会话
+     */
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        synchronized (this) {
+            idleChannels.clear();
+            for (PooledSession pooled : sessions) {
+                pooled.session.disconnect();
+            }
+            sessions.clear();
+        }
+        log.info("SFTP channel pool closed");
+    }
+
+    private boolean validate(PooledChannel channel) {
+        if (!channel.isAlive()) {
+            return false;
+        }
+        if (System.currentTimeMillis() - channel.lastUsed < sftpConfig.getValidationInterval()) {
+            return true;
+        }
+        try {
+            // 空闲较久的通道做一次往返确认服务器端仍然可用
+            channel.channel.realpath(".");
+            return true;
+        } catch (SftpException e) {
+            log.debug("SFTP channel validation failed: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private PooledChannel openChannel() throws JSchException {
+        PooledSession owner = acquireSession();
+        try {
+            ChannelSftp channelSftp = (ChannelSftp) owner.session.openChannel("sftp");
+            channelSftp.connect(sftpConfig.getConnectTimeout());
+            return new PooledChannel(channelSftp, owner);
+        } catch (JSchException e) {
+            synchronized (this) {
+                owner.channels--;
+            }
+            if (!owner.session.isConnected()) {
+                removeSession(owner);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 选择一个仍有空余通道的会话，没有则新建会话
+     */
+    private PooledSession acquireSession() throws JSchException {
+        synchronized (this) {
+            Iterator<PooledSession> it = sessions.iterator();
+            while (it.hasNext()) {
+                PooledSession pooled = it.next();
+                if (!pooled.session.isConnected()) {
+                    if (pooled.channels == 0) {
+                        it.remove();
+                    }
+                    continue;
+                }
+                if (pooled.channels < sftpConfig.getChannelsPerSession()) {
+                    pooled.channels++;
+                    return pooled;
+                }
+            }
+        }
+
+        // 许可数保证了会话数不会超过上限，握手在锁外进行
+        Session session = connectSession();
+        PooledSession pooled = new PooledSession(session);
+        pooled.channels = 1;
+        synchronized (this) {
+            sessions.add(pooled);
+        }
+        return pooled;
+    }
+
+    private Session connectSession() throws JSchException {
+        JSch client = getJsch();
+        Session session = client.getSession(sftpConfig.getUsername(), sftpConfig.getHost(), sftpConfig.getPort());
+
+        Properties config = new Properties();
+        config.put("StrictHostKeyChecking", "no");
+        session.setConfig(config);
+        if (sftpConfig.getServerAliveInterval() > 0) {
+            session.setServerAliveInterval(sftpConfig.getServerAliveInterval());
+        }
+
+        long start = System.currentTimeMillis();
+        session.connect(sftpConfig.getConnectTimeout());
+        connectTime.recordSince(start);
+        log.info("SSH Session connected to {}:{} in {} ms",
+            sftpConfig.getHost(), sftpConfig.getPort(), System.currentTimeMillis() - start);
+        return session;
+    }
+
+    /**
+     * 私钥只在第一次建立会话时加载
+     */
+    private synchronized JSch getJsch() throws JSchException {
+        if (jsch == null) {
+            JSch client = new JSch();
+            if (sftpConfig.getPrivateKeyPassphrase() != null && !sftpConfig.getPrivateKeyPassphrase().isEmpty()) {
+                client.addIdentity(sftpConfig.getPrivateKeyPath(), sftpConfig.getPrivateKeyPassphrase());
+            } else {
+                client.addIdentity(sftpConfig.getPrivateKeyPath());
+            }
+            jsch = client;
+        }
+        return jsch;
+    }
+
+    private void destroy(PooledChannel channel) {
+        if (channel.channel.isConnected()) {
+            channel.channel.disconnect();
+        }
+        synchronized (this) {
+            channel.owner.channels--;
+        }
+        if (!channel.owner.session.isConnected()) {
+            removeSession(channel.owner);
+        }
+    }
+
+    private void removeSession(PooledSession pooled) {
+        synchronized (this) {
+            if (pooled.channels > 0) {
+                return;
+            }
+            sessions.remove(pooled);
+        }
+        if (pooled.session.isConnected()) {
+            pooled.session.disconnect();
+        }
+        log.debug("SSH session to {} removed from pool", sftpConfig.getHost());
+    }
+
+    /**
+     * 回收长时间空闲的通道，以及已无通道的会话
+     */
+    private void evictIdle() {
+        try {
+            long deadline = System.currentTimeMillis() - sftpConfig.getIdleTimeout();
+            List<PooledChannel> expired = new ArrayList<>();
+            synchronized (this) {
+                Iterator<PooledChannel> it = idleChannels.iterator();
+                while (it.hasNext()) {
+                    PooledChannel channel = it.next();
+                    if (channel.lastUsed < deadline || !channel.isAlive()) {
+                        it.remove();
+                        expired.add(channel);
+                    }
+                }
+            }
+            for (PooledChannel channel : expired) {
+                destroy(channel);
+                removeSession(channel.owner);
+            }
+            if (!expired.isEmpty()) {
+                log.debug("Evicted {} idle SFTP channels", expired.size());
+            }
+        } catch (Exception e) {
+            log.warn("Error evicting idle SFTP channels: {}", e.getMessage(), e);
+        }
+    }
+
+    private static class PooledSession {
+        private final Session session;
+        private final RemoteDirectoryCache directoryCache = new RemoteDirectoryCache();
+        private int channels;
+
+        PooledSession(Session session) {
+            this.session = session;
+        }
+    }
+
+    /**
+     * 池中的SFTP通道
+     */
+    public static class PooledChannel {
+        private final ChannelSftp channel;
+        private final PooledSession owner;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        PooledChannel(ChannelSftp channel, PooledSession owner) {
+            this.channel = channel;
+            this.owner = owner;
+        }
+
+        public ChannelSftp getChannel() {
+            return channel;
+        }
+
+        public Session getSession() {
+            return owner.session;
+        }
+
+        /**
+         * 所属会话的远程目录缓存，会话重建后缓存随之重建
+         */
+        RemoteDirectoryCache getDirectoryCache() {
+            return owner.directoryCache;
+        }
+
+        boolean isAlive() {
+            return channel.isConnected() && !channel.isClosed() && owner.session.isConnected();
+        }
+    }
+}
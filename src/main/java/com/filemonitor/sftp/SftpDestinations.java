@@ -0,0 +1,261 @@
+package com.filemonitor.sftp;
+
+import com.filemonitor.config.MonitorConfig;
+import com.filemonitor.config.SftpConfig;
+import com.filemonitor.metrics.MetricsRegistry;
+import com.filemonitor.util.BlockSignatures;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * 上传目的地
+ * 主目的地是sftp.*配置的主机，其余目的地（如灾备站点）在目的地配置文件中定义，每行：
+ *   name|host|port|username|privateKeyPath[|passphrase]
+ * 连接池和分段上传参数沿用主目的地的配置。映射通过 mirror=name:/remote/path 选项引用目的地。
+ *
+ * 一个文件上传到多个目的地时只读取一次本地文件，各目的地并行上传，慢的目的地不会拖慢快的目的地。
+ * 每个镜像目的地同时进行的上传（包括增量上传）不超过其连接池的通道数，超出时该目的地本次不上传（DestinationBusyException）。
+ * 所有目的地的上传共用BandwidthControl的全局带宽，并受所属映射的带宽限制
+ */
+public class SftpDestinations {
+    private static final Logger log = LoggerFactory.getLogger(SftpDestinations.class);
+    private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private final Map<String, SftpService> services = new LinkedHashMap<>();
+    private final Map<String, Semaphore> mirrorSlots = new HashMap<>();
+    private final ExecutorService uploadExecutor;
+    private final BandwidthControl bandwidth;
+
+    /**
+     * @param destinationFile 目的地配置文件，为空表示只有主目的地
+     */
+    public SftpDestinations(SftpService primary, SftpConfig primaryConfig, String destinationFile,
+                            MetricsRegistry metrics, BandwidthControl bandwidth) throws IOException {
+        this.bandwidth = bandwidth;
+        services.put(MonitorConfig.FileMapping.PRIMARY_DESTINATION, primary);
+        if (destinationFile != null && !destinationFile.trim().isEmpty()) {
+            for (String line : Files.readAllLines(Paths.get(destinationFile.trim()))) {
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                addDestination(line, primaryConfig, metrics);
+            }
+        }
+
+        AtomicInteger counter = new AtomicInteger(1);
+        this.uploadExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "sftp-fanout-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void addDestination(String line, SftpConfig primaryConfig, MetricsRegistry metrics) {
+        String[] parts = line.trim().split("\\|");
+        if (parts.length != 5 && parts.length != 6) {
+            throw new IllegalArgumentException("Invalid destination line format: " + line);
+        }
+        String name = parts[0].trim();
+        if (!NAME_PATTERN.matcher(name).matches() || services.containsKey(name)) {
+            throw new IllegalArgumentException("Invalid or duplicate destination name: " + name);
+        }
+        SftpConfig config = primaryConfig.withEndpoint(parts[1].trim(), Integer.parseInt(parts[2].trim()),
+            parts[3].trim(), parts[4].trim(), parts.length == 6 ? parts[5].trim() : null);
+        services.put(name, new SftpService(config, metrics, "sftp." + name));
+        mirrorSlots.put(name, new Semaphore(Math.max(1, config.getMaxSessions() * config.getChannelsPerSession())));
+        log.info("Configured upload destination {}: {}@{}:{}", name, config.getUsername(), config.getHost(), config.getPort());
+    }
+
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(services.keySet());
+    }
+
+    /**
+     * 上传文件到多个目的地
+     * 只有主目的地时在调用线程上直接上传；否则各目的地在独立线程上传，有多个目的地时
+     * 调用线程负责读取本地文件并分发给各目的地，读完即返回，落后的目的地自行读完剩余部分
+     * @param mapping 映射名，用于带宽限制
+     * @param targets 目的地名到远程文件路径
+     * @return 各目的地的上传结果（内容的十六进制SHA-256摘要）
+     */
+    public Map<String, CompletableFuture<String>> uploadFile(String mapping, String localFilePath,
+                                                             Map<String, String> targets) {
+        File localFile = new File(localFilePath);
+        BandwidthLimiter limiter = bandwidth.forMapping(mapping);
+        Map<String, CompletableFuture<String>> results = new LinkedHashMap<>();
+        String only = targets.size() == 1 ? targets.keySet().iterator().next() : null;
+        if (MonitorConfig.FileMapping.PRIMARY_DESTINATION.equals(only)) {
+            results.put(only, runNow(only, service -> service.uploadFile(localFile, targets.get(only), null, limiter)));
+            return results;
+        }
+
+        FanOutReader reader = only == null ? new FanOutReader(localFile) : null;
+        for (Map.Entry<String, String> target : targets.entrySet()) {
+            SftpService service;
+            try {
+                service = get(target.getKey());
+            } catch (IllegalArgumentException e) {
+                results.put(target.getKey(), failed(e));
+                continue;
+            }
+            Semaphore slots = mirrorSlots.get(target.getKey());
+            if (slots != null && !slots.tryAcquire()) {
+                results.put(target.getKey(), failed(new DestinationBusyException(target.getKey())));
+                continue;
+            }
+            InputStream tap = reader != null ? reader.newTap() : null;
+            results.put(target.getKey(), runAsync(slots,
+                () -> service.uploadFile(localFile, target.getValue(), tap, limiter)));
+        }
+        if (reader != null) {
+            try {
+                reader.run();
+            } catch (IOException e) {
+                log.warn("Error reading {} for upload: {}", localFilePath, e.getMessage());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 把一批文件打包上传到多个目的地，各目的地并行，分别读取本地文件；只有主目的地时在调用线程上直接上传
+     * @param mapping 映射名，用于带宽限制
+     * @param entries 目的地名到该目的地需要上传的文件（本地文件到归档内相对路径）
+     * @param remoteDirectories 目的地名到远程目录
+     */
+    public Map<String, CompletableFuture<Map<File, String>>> uploadArchive(String mapping,
+                                                                          Map<String, Map<File, String>> entries,
+                                                                          Map<String, String> remoteDirectories,
+                                                                          boolean gzip) {
+        BandwidthLimiter limiter = bandwidth.forMapping(mapping);
+        Map<String, CompletableFuture<Map<File, String>>> results = new LinkedHashMap<>();
+        for (Map.Entry<String, String> target : remoteDirectories.entrySet()) {
+            Map<File, String> files = entries.get(target.getKey());
+            if (remoteDirectories.size() == 1 && MonitorConfig.FileMapping.PRIMARY_DESTINATION.equals(target.getKey())) {
+                results.put(target.getKey(), runNow(target.getKey(),
+                    service -> service.uploadArchive(files, target.getValue(), gzip, limiter)));
+                continue;
+            }
+            Semaphore slots = mirrorSlots.get(target.getKey());
+            if (slots != null && !slots.tryAcquire()) {
+                results.put(target.getKey(), failed(new DestinationBusyException(target.getKey())));
+                continue;
+            }
+            results.put(target.getKey(), runAsync(slots,
+                () -> get(target.getKey()).uploadArchive(files, target.getValue(), gzip, limiter)));
+        }
+        return results;
+    }
+
+    /**
+     * 在调用线程上向一个目的地上传，镜像目的地同样占用上传名额
+     */
+    private <T> CompletableFuture<T> runNow(String destination, Function<SftpService, T> upload) {
+        Semaphore slots = mirrorSlots.get(destination);
+        if (slots != null && !slots.tryAcquire()) {
+            return failed(new DestinationBusyException(destination));
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            result.complete(upload.apply(get(destination)));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        } finally {
+            if (slots != null) {
+                slots.release();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 在上传线程上执行，已占用的上传名额在结果完成之前归还，后续阶段可以立即向同一目的地再次上传
+     */
+    private <T> CompletableFuture<T> runAsync(Semaphore slots, Supplier<T> upload) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return upload.get();
+            } finally {
+                if (slots != null) {
+                    slots.release();
+                }
+            }
+        }, uploadExecutor);
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(error);
+        return result;
+    }
+
+    /**
+     * 向一个目的地增量上传：主目的地在调用线程上执行，镜像目的地与整体上传一样在上传线程上执行并占用上传名额
+     * @return 上传结果，结果为null表示不适用增量上传
+     * @see SftpService#uploadDelta
+     */
+    public CompletableFuture<DeltaResult> uploadDelta(String mapping, String destination, File localFile,
+                                                      String remoteFilePath, long previousSize, String previousHash,
+                                                      BlockSignatures previous, BooleanSupplier beforeRewrite) {
+        BandwidthLimiter limiter = bandwidth.forMapping(mapping);
+        Function<SftpService, DeltaResult> upload = service -> service.uploadDelta(localFile, remoteFilePath,
+            previousSize, previousHash, previous, beforeRewrite, limiter);
+        Semaphore slots = mirrorSlots.get(destination);
+        if (slots == null) {
+            return runNow(destination, upload);
+        }
+        if (!slots.tryAcquire()) {
+            return failed(new DestinationBusyException(destination));
+        }
+        return runAsync(slots, () -> upload.apply(get(destination)));
+    }
+
+    /**
+     * 映射文件重新加载后调用，释放已删除映射的带宽限制
+     * @param mappings 当前配置中的映射名
+     */
+    public void retainMappings(Collection<String> mappings) {
+        bandwidth.retainMappings(mappings);
+    }
+
+    private SftpService get(String name) {
+        SftpService service = services.get(name);
+        if (service == null) {
+            throw new IllegalArgumentException("Unknown upload destination: " + name);
+        }
+        return service;
+    }
+
+    /**
+     * 关闭主目的地以外的连接池，主目的地的SftpService由容器关闭
+     */
+    public void shutdown() {
+        uploadExecutor.shutdownNow();
+        services.forEach((name, service) -> {
+            if (!MonitorConfig.FileMapping.PRIMARY_DESTINATION.equals(name)) {
+                service.shutdown();
+            }
+        });
+    }
+}
@@ -1,87 +1,366 @@
 package com.filemonitor.sftp;
 
 import com.filemonitor.config.SftpConfig;
+import com.filemonitor.metrics.LatencyHistogram;
+import com.filemonitor.metrics.Meter;
+import com.filemonitor.metrics.MetricsRegistry;
+import com.filemonitor.util.BlockSignatures;
+import com.filemonitor.util.HashUtils;
 import com.jcraft.jsch.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.File;
-import java.util.Properties;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
 
 public class SftpService {
     private static final Logger log = LoggerFactory.getLogger(SftpService.class);
+    private static final int MAX_ATTEMPTS = 2;  // 连接失效时换一个通道重试一次
+    static final String PART_SUFFIX = ".part";
+    private static final int RESUME_CHECK_LENGTH = 64 * 1024;  // 续传前比对的尾部长度
+    private static final int BUFFER_SIZE = 64 * 1024;
     private final SftpConfig sftpConfig;
+    private final SftpChannelPool channelPool;
+    private final SegmentedUploader segmentedUploader;
+    private final ArchiveUploader archiveUploader;
+    private final DeltaUploader deltaUploader;
+    private final LatencyHistogram transferTime;
+    private final Meter uploadedBytes;
+    private final LongAdder resumedUploads;
+    private final LongAdder deltaUploads;
+    private final LongAdder deltaSavedBytes;
     
-    public SftpService(SftpConfig sftpConfig) {
+    public SftpService(SftpConfig sftpConfig, MetricsRegistry metrics) {
+        this(sftpConfig, metrics, "sftp");
+    }
+
+    /**
+     * @param metricPrefix 指标名前缀，多个目的地各用一个
+     */
+    public SftpService(SftpConfig sftpConfig, MetricsRegistry metrics, String metricPrefix) {
         this.sftpConfig = sftpConfig;
+        this.channelPool = new SftpChannelPool(sftpConfig, metrics.histogram(metricPrefix + ".connect.time"));
+        this.transferTime = metrics.histogram(metricPrefix + ".transfer.time");
+        this.uploadedBytes = metrics.meter(metricPrefix + ".bytes");
+        this.resumedUploads = metrics.counter(metricPrefix + ".uploads.resumed");
+        this.deltaUploads = metrics.counter(metricPrefix + ".delta.uploads");
+        this.deltaSavedBytes = metrics.counter(metricPrefix + ".delta.savedBytes");
+        this.segmentedUploader = new SegmentedUploader(sftpConfig, this, channelPool);
+        this.archiveUploader = new ArchiveUploader(channelPool, sftpConfig.getConnectTimeout());
+        this.deltaUploader = new DeltaUploader(channelPool);
     }
     
-    public void uploadFile(String localFilePath, String remoteFilePath) {
-        Session session = null;
-        ChannelSftp channelSftp = null;
-        
+    /**
+     * 上传文件，读取本地文件的同时计算SHA-256，文件只读取一次
+     * 内容先写入远程临时文件（目标名加.part），完成后原子重命名为目标文件；
+     * 上次上传中断留下的临时文件在尾部校验一致后从断点续传
+     * @return 上传内容的十六进制SHA-256摘要
+     */
+    public String uploadFile(String localFilePath, String remoteFilePath) {
+        return uploadFile(new File(localFilePath), remoteFilePath, null, null);
+    }
+
+    /**
+     * @param shared 多目的地共享读取时该目的地的输入流，只用于第一次尝试，无论成败都会关闭；null表示自行读取本地文件
+     * @param limiter 上传限速器，null表示不限速
+     */
+    String uploadFile(File localFile, String remoteFilePath, InputStream shared, BandwidthLimiter limiter) {
+        String localFilePath = localFile.getPath();
+        long start = System.currentTimeMillis();
+        if (segmentedUploader.accepts(localFile.length())) {
+            closeQuietly(shared);
+            String fileHash = uploadSegmented(localFile, remoteFilePath, limiter);
+            recordTransfer(start, localFile.length());
+            return fileHash;
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            SftpChannelPool.PooledChannel pooled = null;
+            boolean broken = false;
+            InputStream source = shared;
+            shared = null;
+
+            try {
+                pooled = channelPool.borrow();
+                ChannelSftp channelSftp = pooled.getChannel();
+
+                // 创建远程目录（如果不存在）
+                createRemoteDirectories(pooled, remoteFilePath);
+
+                // 上传文件，同一份缓冲数据同时送入摘要和SFTP输出流
+                String partPath = remoteFilePath + PART_SUFFIX;
+                long fileSize = localFile.length();
+                MessageDigest digest = HashUtils.newDigest();
+                try (InputStream in = new DigestInputStream(source != null ? source : new FileInputStream(localFile), digest)) {
+                    long offset = resumeOffset(channelSftp, localFile, partPath);
+                    if (offset > 0) {
+                        // 已上传部分只需在本地读过一遍计入摘要
+                        skipFully(in, offset);
+                        resumedUploads.increment();
+                        log.info("Resuming upload of {} at byte {} of {}", localFilePath, offset, fileSize);
+                    }
+                    try (OutputStream out = BandwidthLimiter.throttle(limiter, channelSftp.put(partPath, null,
+                            offset > 0 ? ChannelSftp.RESUME : ChannelSftp.OVERWRITE, 0))) {
+                        copy(in, out);
+                    }
+                }
+
+                long remoteSize = channelSftp.stat(partPath).getSize();
+                if (remoteSize != fileSize) {
+                    throw new IOException("Remote size " + remoteSize + " does not match local size " + fileSize);
+                }
+                replaceRemoteFile(channelSftp, partPath, remoteFilePath);
+                recordTransfer(start, fileSize);
+                log.info("File uploaded successfully: {} -> {}", localFilePath, remoteFilePath);
+                return HashUtils.toHex(digest.digest());
+            } catch (JSchException e) {
+                broken = true;
+                log.error("SSH/SFTP connection error: {}", e.getMessage(), e);
+                throw new RuntimeException("Failed to establish SFTP connection", e);
+            } catch (SftpException e) {
+                broken = isConnectionLost(e, pooled);
+                if (broken && attempt < MAX_ATTEMPTS) {
+                    log.warn("SFTP connection lost while uploading {}, reconnecting: {}", localFilePath, e.getMessage());
+                    continue;
+                }
+                if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE && pooled != null && attempt < MAX_ATTEMPTS) {
+                    // 缓存中的目录可能已在远端被删除，清除缓存后重建目录再试一次
+                    log.warn("Remote directory for {} is missing, recreating: {}", remoteFilePath, e.getMessage());
+                    pooled.getDirectoryCache().invalidate(RemoteDirectoryCache.parentOf(remoteFilePath));
+                    continue;
+                }
+                log.error("SFTP operation error: {}", e.getMessage(), e);
+                throw new RuntimeException("Failed to perform SFTP operation", e);
+            } catch (IOException e) {
+                // 写入远程输出流时连接断开也会以IOException抛出
+                broken = pooled != null && !pooled.isAlive();
+                if (broken && attempt < MAX_ATTEMPTS) {
+                    log.warn("SFTP connection lost while uploading {}, reconnecting: {}", localFilePath, e.getMessage());
+                    continue;
+                }
+                log.error("Error uploading file {}: {}", localFilePath, e.getMessage(), e);
+                throw new RuntimeException("Failed to upload file", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for SFTP channel", e);
+            } finally {
+                closeQuietly(source);
+                if (pooled != null) {
+                    channelPool.release(pooled, broken);
+                }
+            }
+        }
+    }
+
+    /**
+     * 把一批小文件打包成一个tar流上传，由远端解包到remoteDirectory（远端需要有shell和tar）
+     * @param entries 本地文件到远程目录下相对路径的映射
+     * @param gzip 是否gzip压缩
+     * @param limiter 上传限速器，null表示不限速
+     * @return 每个文件的十六进制SHA-256摘要
+     */
+    public Map<File, String> uploadArchive(Map<File, String> entries, String remoteDirectory, boolean gzip,
+                                           BandwidthLimiter limiter) {
+        long start = System.currentTimeMillis();
         try {
-            JSch jsch = new JSch();
-            
-            // 添加私钥
-            if (sftpConfig.getPrivateKeyPassphrase() != null) {
-                jsch.addIdentity(sftpConfig.getPrivateKeyPath(), sftpConfig.getPrivateKeyPassphrase());
-            } else {
-                jsch.addIdentity(sftpConfig.getPrivateKeyPath());
+            Map<File, String> hashes = archiveUploader.upload(entries, remoteDirectory, gzip, limiter);
+            recordTransfer(start, entries.keySet().stream().mapToLong(File::length).sum());
+            return hashes;
+        } catch (JSchException e) {
+            log.error("SSH/SFTP connection error: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to establish SFTP connection", e);
+        } catch (IOException e) {
+            log.error("Error uploading batch of {} files to {}: {}", entries.size(), remoteDirectory, e.getMessage(), e);
+            throw new RuntimeException("Failed to upload file batch", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while uploading file batch", e);
+        }
+    }
+
+    /**
+     * 增量上传：远程文件仍是上次上传的内容时只发送变化的部分，变化的块改写在临时文件上再改回原名
+     * @param previousSize 上次上传的长度
+     * @param previousHash 上次上传内容的十六进制摘要
+     * @param previous 上次上传内容的分块签名，null时只能走只追加的路径
+     * @param beforeRewrite 第一次改写远程文件之前调用，返回false时放弃
+     * @param limiter 上传限速器，null表示不限速
+     * @return 上传结果，不适用增量上传时为null，由调用方改为整体上传
+     */
+    public DeltaResult uploadDelta(File localFile, String remoteFilePath, long previousSize, String previousHash,
+                                   BlockSignatures previous, BooleanSupplier beforeRewrite, BandwidthLimiter limiter) {
+        long start = System.currentTimeMillis();
+        try {
+            DeltaResult result = deltaUploader.upload(localFile, remoteFilePath, previousSize, previousHash,
+                previous, beforeRewrite, limiter);
+            if (result != null) {
+                recordTransfer(start, result.getSentBytes());
+                deltaUploads.increment();
+                deltaSavedBytes.add(result.getLength() - result.getSentBytes());
             }
-            
-            session = jsch.getSession(sftpConfig.getUsername(), sftpConfig.getHost(), sftpConfig.getPort());
-            
-            Properties config = new Properties();
-            config.put("StrictHostKeyChecking", "no");
-            session.setConfig(config);
-            
-            session.connect();
-            log.debug("SSH Session connected to {}:{}", sftpConfig.getHost(), sftpConfig.getPort());
-            
-            channelSftp = (ChannelSftp) session.openChannel("sftp");
-            channelSftp.connect();
-            
-            // 创建远程目录（如果不存在）
-            createRemoteDirectories(channelSftp, remoteFilePath);
-            
-            // 上传文件
-            channelSftp.put(localFilePath, remoteFilePath);
-            log.info("File uploaded successfully: {} -> {}", localFilePath, remoteFilePath);
-            
+            return result;
         } catch (JSchException e) {
             log.error("SSH/SFTP connection error: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to establish SFTP connection", e);
         } catch (SftpException e) {
             log.error("SFTP operation error: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to perform SFTP operation", e);
-        } finally {
-            if (channelSftp != null && channelSftp.isConnected()) {
-                channelSftp.disconnect();
+        } catch (IOException e) {
+            log.error("Error uploading changes of {}: {}", localFile.getPath(), e.getMessage(), e);
+            throw new RuntimeException("Failed to upload file changes", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while uploading file changes", e);
+        }
+    }
+
+    private void recordTransfer(long start, long bytes) {
+        transferTime.recordSince(start);
+        uploadedBytes.mark(bytes);
+    }
+
+    /**
+     * 计算可续传的偏移：远程临时文件不超过本地文件大小，且末尾一段与本地对应位置内容相同时从其末尾续传，否则从头上传
+     */
+    private long resumeOffset(ChannelSftp channelSftp, File localFile, String partPath) throws SftpException, IOException {
+        long partSize;
+        try {
+            partSize = channelSftp.stat(partPath).getSize();
+        } catch (SftpException e) {
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                return 0;
+            }
+            throw e;
+        }
+        if (partSize <= 0 || partSize > localFile.length()) {
+            return 0;
+        }
+
+        int tailLength = (int) Math.min(RESUME_CHECK_LENGTH, partSize);
+        long tailStart = partSize - tailLength;
+        byte[] remoteTail = new byte[tailLength];
+        byte[] localTail = new byte[tailLength];
+        try (InputStream in = channelSftp.get(partPath, null, tailStart)) {
+            readFully(in, remoteTail);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(localFile, "r")) {
+            raf.seek(tailStart);
+            raf.readFully(localTail);
+        }
+        if (!Arrays.equals(remoteTail, localTail)) {
+            log.info("Partial upload {} does not match local file {}, starting over", partPath, localFile.getPath());
+            return 0;
+        }
+        return partSize;
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.debug("Error closing input stream: {}", e.getMessage());
             }
-            if (session != null && session.isConnected()) {
-                session.disconnect();
+        }
+    }
+
+    private static void skipFully(InputStream in, long length) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file");
             }
+            remaining -= read;
         }
     }
-    
-    private void createRemoteDirectories(ChannelSftp channelSftp, String remoteFilePath) {
+
+    private static void readFully(InputStream in, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int read = in.read(buffer, offset, buffer.length - offset);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of remote file");
+            }
+            offset += read;
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    private String uploadSegmented(File localFile, String remoteFilePath, BandwidthLimiter limiter) {
         try {
-            String[] dirs = remoteFilePath.substring(0, remoteFilePath.lastIndexOf('/')).split("/");
-            String currentPath = "";
-            for (String dir : dirs) {
-                if (dir.isEmpty()) continue;
-                currentPath += "/" + dir;
-                try {
-                    channelSftp.cd(currentPath);
-                } catch (SftpException e) {
-                    log.debug("Creating remote directory: {}", currentPath);
-                    channelSftp.mkdir(currentPath);
-                }
+            return segmentedUploader.upload(localFile, remoteFilePath, limiter);
+        } catch (JSchException e) {
+            log.error("SSH/SFTP connection error: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to establish SFTP connection", e);
+        } catch (SftpException e) {
+            log.error("SFTP operation error: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to perform SFTP operation", e);
+        } catch (IOException e) {
+            log.error("Error uploading segments of {}: {}", localFile.getPath(), e.getMessage(), e);
+            throw new RuntimeException("Failed to upload file segments", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while uploading file segments", e);
+        }
+    }
+
+    /**
+     * 关闭连接池，释放所有SSH会话
+     */
+    public void shutdown() {
+        segmentedUploader.shutdown();
+        channelPool.close();
+    }
+
+    /**
+     * 把远程临时文件重命名为目标文件，目标已存在时覆盖
+     * 服务器支持posix-rename扩展时JSch直接原子替换，否则先删除目标再重命名
+     */
+    void replaceRemoteFile(ChannelSftp channelSftp, String sourcePath, String targetPath) throws SftpException {
+        try {
+            channelSftp.rename(sourcePath, targetPath);
+        } catch (SftpException e) {
+            try {
+                channelSftp.rm(targetPath);
+            } catch (SftpException rmError) {
+                throw e;
             }
-        } catch (Exception e) {
-            log.error("Error creating remote directories: {}", e.getMessage(), e);
-            throw new RuntimeException("Failed to create remote directories", e);
+            channelSftp.rename(sourcePath, targetPath);
         }
     }
-} 
\ No newline at end of file
+
+    static boolean isConnectionLost(SftpException e, SftpChannelPool.PooledChannel pooled) {
+        if (e.id == ChannelSftp.SSH_FX_CONNECTION_LOST || e.id == ChannelSftp.SSH_FX_NO_CONNECTION) {
+            return true;
+        }
+        return pooled != null && (!pooled.getChannel().isConnected() || !pooled.getSession().isConnected());
+    }
+    
+    /**
+     * 确保目标文件所在的远程目录存在，已确认存在的目录由会话级缓存记住，不再往返确认
+     */
+    void createRemoteDirectories(SftpChannelPool.PooledChannel pooled, String remoteFilePath)
+            throws SftpException, InterruptedException {
+        pooled.getDirectoryCache().ensureDirectory(pooled.getChannel(), RemoteDirectoryCache.parentOf(remoteFilePath));
+    }
+}
@@ -0,0 +1,202 @@
+package com.filemonitor.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+
+/**
+ * 文件的分块签名，用于增量上传时找出变化的块
+ * 文件按固定大小分块，每块记录弱校验（Adler-32）和强哈希（SHA-256的前16字节），比较时先比弱校验再比强哈希。
+ * 签名可以边读边生成：update按块边界切分数据，finish结束最后一个不满的块
+ */
+public class BlockSignatures {
+    private static final int FORMAT_VERSION = 1;
+    private static final int MIN_BLOCK_SIZE = 4 * 1024;
+    private static final int MAX_BLOCK_SIZE = 1024 * 1024;
+    private static final int STRONG_LENGTH = 16;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int blockSize;
+    private String fileHash;   // 签名对应内容的十六进制SHA-256摘要
+    private long length;
+    private int count;
+    private int[] weak;
+    private byte[] strong;
+
+    // 当前未满的块
+    private final Adler32 weakSum = new Adler32();
+    private final MessageDigest strongSum = HashUtils.newDigest();
+    private int pending;
+
+    public BlockSignatures(int blockSize) {
+        this(blockSize, 16);
+    }
+
+    private BlockSignatures(int blockSize, int capacity) {
+        this.blockSize = blockSize;
+        this.weak = new int[Math.max(1, capacity)];
+        this.strong = new byte[weak.length * STRONG_LENGTH];
+    }
+
+    /**
+     * 按文件大小选择块大小：约为文件大小的平方根，取2的幂并限制在4KB到1MB之间
+     */
+    public static int blockSizeFor(long fileLength) {
+        long target = (long) Math.sqrt((double) fileLength);
+        int size = MIN_BLOCK_SIZE;
+        while (size < target && size < MAX_BLOCK_SIZE) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * 读取整个文件生成签名，同时计算整个文件的摘要
+     */
+    public static BlockSignatures compute(File file) throws IOException {
+        BlockSignatures signatures = new BlockSignatures(blockSizeFor(file.length()));
+        MessageDigest digest = HashUtils.newDigest();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                signatures.update(buffer, 0, read);
+            }
+        }
+        signatures.finish();
+        signatures.setFileHash(HashUtils.toHex(digest.digest()));
+        return signatures;
+    }
+
+    public void update(byte[] data, int offset, int len) {
+        while (len > 0) {
+            int n = Math.min(len, blockSize - pending);
+            weakSum.update(data, offset, n);
+            strongSum.update(data, offset, n);
+            pending += n;
+            length += n;
+            offset += n;
+            len -= n;
+            if (pending == blockSize) {
+                closeBlock();
+            }
+        }
+    }
+
+    /**
+     * 结束最后一个不满的块，之后不能再追加数据
+     */
+    public BlockSignatures finish() {
+        if (pending > 0) {
+            closeBlock();
+        }
+        return this;
+    }
+
+    private void closeBlock() {
+        if (count == weak.length) {
+            weak = Arrays.copyOf(weak, count * 2);
+            strong = Arrays.copyOf(strong, count * 2 * STRONG_LENGTH);
+        }
+        weak[count] = (int) weakSum.getValue();
+        System.arraycopy(strongSum.digest(), 0, strong, count * STRONG_LENGTH, STRONG_LENGTH);
+        count++;
+        weakSum.reset();
+        pending = 0;
+    }
+
+    /**
+     * 只保留完全落在前prefixLength字节内的整块，用于文件追加后从最后一个整块继续生成
+     */
+    public BlockSignatures copyPrefix(long prefixLength) {
+        int blocks = (int) Math.min(count, prefixLength / blockSize);
+        BlockSignatures copy = new BlockSignatures(blockSize, blocks + 16);
+        System.arraycopy(weak, 0, copy.weak, 0, blocks);
+        System.arraycopy(strong, 0, copy.strong, 0, blocks * STRONG_LENGTH);
+        copy.count = blocks;
+        copy.length = (long) blocks * blockSize;
+        return copy;
+    }
+
+    /**
+     * 两份签名的第index块是否相同（长度、弱校验和强哈希都一致）
+     */
+    public boolean sameBlock(int index, BlockSignatures other) {
+        if (index >= count || index >= other.count || blockSize != other.blockSize
+                || blockLength(index) != other.blockLength(index) || weak[index] != other.weak[index]) {
+            return false;
+        }
+        int from = index * STRONG_LENGTH;
+        return Arrays.equals(strong, from, from + STRONG_LENGTH, other.strong, from, from + STRONG_LENGTH);
+    }
+
+    private long blockLength(int index) {
+        return Math.min(blockSize, length - (long) index * blockSize);
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public String getFileHash() {
+        return fileHash;
+    }
+
+    public void setFileHash(String fileHash) {
+        this.fileHash = fileHash;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        if (pending > 0) {
+            throw new IllegalStateException("Signatures not finished");
+        }
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(fileHash);
+        out.writeInt(blockSize);
+        out.writeLong(length);
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeInt(weak[i]);
+        }
+        out.write(strong, 0, count * STRONG_LENGTH);
+    }
+
+    public static BlockSignatures readFrom(DataInput in) throws IOException {
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported signature format version: " + version);
+        }
+        String fileHash = in.readUTF();
+        int blockSize = in.readInt();
+        long length = in.readLong();
+        int count = in.readInt();
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE || count < 0
+                || count != (length + blockSize - 1) / blockSize) {
+            throw new IOException("Corrupt signature header");
+        }
+        BlockSignatures signatures = new BlockSignatures(blockSize, count);
+        for (int i = 0; i < count; i++) {
+            signatures.weak[i] = in.readInt();
+        }
+        in.readFully(signatures.strong, 0, count * STRONG_LENGTH);
+        signatures.count = count;
+        signatures.length = length;
+        signatures.fileHash = fileHash;
+        return signatures;
+    }
+}
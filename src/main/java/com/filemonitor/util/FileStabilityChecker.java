@@ -7,64 +7,124 @@ import java.io.File;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
  * 文件稳定性检查器
  * 用于确保大文件在传输前已经完全写入完成
+ * 待检查的文件由定时任务统一轮询，不占用处理线程，文件稳定后通过回调交给上传线程池
  */
 public class FileStabilityChecker {
     private static final Logger log = LoggerFactory.getLogger(FileStabilityChecker.class);
     private static final long CHECK_INTERVAL = 1000; // 1秒
-    private static final int MAX_RETRIES = 30;       // 最多等待30次
     private static final long MIN_STABLE_TIME = 3000; // 文件需要保持3秒稳定
+    private static final long WARN_AFTER = 30000;     // 超过30秒仍未稳定时记录警告（继续跟踪）
+
+    private final Map<String, PendingFile> pendingFiles = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    public FileStabilityChecker() {
+        this(true);
+    }
 
     /**
-     * 检查文件是否稳定（不再被写入）
-     * @param file 要检查的文件
-     * @return 如果文件稳定返回true，否则返回false
+     * @param scheduled 为false时不启动定时检查，由调用方直接调用checkPendingFiles（基准测试用）
      */
-    public static boolean isFileStable(File file) {
-        if (!isFileWritable(file)) {
-            log.debug("File {} is locked or not writable", file.getPath());
-            return false;
+    FileStabilityChecker(boolean scheduled) {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "file-stability-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (scheduled) {
+            scheduler.scheduleWithFixedDelay(this::checkPendingFiles, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
         }
+    }
 
-        try {
-            long lastSize = -1;
-            long lastModified = -1;
-            int stableCount = 0;
-            int retryCount = 0;
-
-            while (retryCount < MAX_RETRIES) {
-                long currentSize = file.length();
-                long currentModified = file.lastModified();
-
-                if (currentSize == lastSize && currentModified == lastModified) {
-                    stableCount++;
-                    if (stableCount * CHECK_INTERVAL >= MIN_STABLE_TIME) {
-                        log.debug("File {} is stable after {} checks", file.getPath(), stableCount);
-                        return true;
-                    }
-                } else {
-                    log.debug("File {} size or modification time changed, resetting stability counter", file.getPath());
-                    stableCount = 0;
-                }
+    /**
+     * 跟踪文件直到其稳定（不再被写入），稳定后执行onStable
+     * 同一文件重复提交时只更新回调，稳定计时不受影响
+     * @param file 要检查的文件
+     * @param onStable 文件稳定后执行的回调，在检查线程中调用，应尽快返回
+     * @param onAbandoned 文件在稳定前被删除时执行的回调
+     */
+    public void whenStable(File file, Runnable onStable, Runnable onAbandoned) {
+        pendingFiles.compute(file.getAbsolutePath(), (path, pending) -> {
+            if (pending == null) {
+                return new PendingFile(file, onStable, onAbandoned);
+            }
+            pending.onStable = onStable;
+            pending.onAbandoned = onAbandoned;
+            return pending;
+        });
+    }
+
+    /**
+     * 取消对文件的跟踪
+     */
+    public void cancel(File file) {
+        pendingFiles.remove(file.getAbsolutePath());
+    }
+
+    public int getPendingCount() {
+        return pendingFiles.size();
+    }
 
-                lastSize = currentSize;
-                lastModified = currentModified;
-                retryCount++;
+    public void shutdown() {
+        scheduler.shutdownNow();
+        pendingFiles.clear();
+    }
 
-                TimeUnit.MILLISECONDS.sleep(CHECK_INTERVAL);
+    void checkPendingFiles() {
+        long now = System.currentTimeMillis();
+        Iterator<PendingFile> it = pendingFiles.values().iterator();
+        while (it.hasNext()) {
+            PendingFile pending = it.next();
+            try {
+                if (!pending.file.exists()) {
+                    log.debug("File {} no longer exists, stop tracking", pending.file.getPath());
+                    it.remove();
+                    pending.onAbandoned.run();
+                    continue;
+                }
+                if (isStable(pending, now)) {
+                    it.remove();
+                    log.debug("File {} is stable after {} ms", pending.file.getPath(), now - pending.firstSeen);
+                    pending.onStable.run();
+                } else if (!pending.warned && now - pending.firstSeen >= WARN_AFTER) {
+                    pending.warned = true;
+                    log.warn("File {} not stable after {} ms, still waiting", pending.file.getPath(), now - pending.firstSeen);
+                }
+            } catch (Exception e) {
+                log.error("Error checking file stability: {}", pending.file.getPath(), e);
             }
+        }
+    }
+
+    private boolean isStable(PendingFile pending, long now) {
+        long currentSize = pending.file.length();
+        long currentModified = pending.file.lastModified();
 
-            log.warn("File {} not stable after {} retries", file.getPath(), MAX_RETRIES);
+        if (currentSize != pending.size || currentModified != pending.lastModified) {
+            log.debug("File {} size or modification time changed, resetting stability counter", pending.file.getPath());
+            pending.size = currentSize;
+            pending.lastModified = currentModified;
+            pending.stableSince = now;
             return false;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            log.error("Interrupted while checking file stability: {}", file.getPath(), e);
+        }
+        if (now - pending.stableSince < MIN_STABLE_TIME) {
             return false;
         }
+        if (!isFileWritable(pending.file)) {
+            log.debug("File {} is locked or not writable", pending.file.getPath());
+            return false;
+        }
+        return true;
     }
 
     /**
@@ -80,7 +140,7 @@ public class FileStabilityChecker {
 
         try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
              FileChannel channel = raf.getChannel()) {
-            
+
             FileLock lock = channel.tryLock();
             if (lock != null) {
                 lock.release();
@@ -92,4 +152,28 @@ public class FileStabilityChecker {
             return false;
         }
     }
-} 
\ No newline at end of file
+
+    /**
+     * 待检查文件的状态
+     */
+    private static class PendingFile {
+        private final File file;
+        private final long firstSeen;
+        private volatile Runnable onStable;
+        private volatile Runnable onAbandoned;
+        private long size;
+        private long lastModified;
+        private long stableSince;
+        private boolean warned;
+
+        PendingFile(File file, Runnable onStable, Runnable onAbandoned) {
+            this.file = file;
+            this.onStable = onStable;
+            this.onAbandoned = onAbandoned;
+            this.firstSeen = System.currentTimeMillis();
+            this.size = file.length();
+            this.lastModified = file.lastModified();
+            this.stableSince = firstSeen;
+        }
+    }
+}
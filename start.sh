@@ -8,6 +8,7 @@ cd "$SCRIPT_DIR"
 LOG_DIR="logs"
 JAR_NAME="file-monitor-sftp-1.0-SNAPSHOT-jar-with-dependencies.jar"
 MAPPING_FILE="file_mappings.txt"
+MAPPING_RELOAD_INTERVAL="5000"  # 映射文件修改后自动生效的检查间隔（毫秒），0表示修改后需要重启
 RECORD_FILE="./processed_files.json"
 
 # SFTP配置
@@ -16,9 +17,27 @@ SFTP_PORT="22"
 SFTP_USERNAME="your-username"
 SFTP_PRIVATE_KEY="/path/to/.ssh/id_rsa"
 SFTP_KEY_PASSPHRASE=""  # 如果私钥有密码，在这里设置
+SFTP_MAX_SESSIONS="2"           # 连接池中SSH会话上限
+SFTP_CHANNELS_PER_SESSION="4"   # 每个会话的SFTP通道上限
+SFTP_SEGMENT_THRESHOLD="0"      # 超过该大小（字节）的文件分段并行上传，0表示关闭
+                                # 分段上传时本地文件读两遍（各段读取上传，另顺序读一遍计算SHA-256），本地读取量翻倍，
+                                # 只在网络延迟是瓶颈、本地磁盘有余量时开启
+SFTP_SEGMENT_PARALLELISM="4"    # 分段上传的并行段数
+SFTP_DESTINATION_FILE=""        # 其他上传目的地（如灾备站点）的配置文件，见destinations.txt，为空表示只有上面的主机
+SFTP_BANDWIDTH_LIMIT="0"        # 所有上传共用的带宽上限（每秒字节数，可带K/M/G后缀），0表示不限
+SFTP_BANDWIDTH_FILE=""          # 按映射和时间段限速的配置文件，见bandwidth.txt，修改后自动生效
 
 # 监控配置
 POLLING_INTERVAL="5000"
+MONITOR_ENGINE="auto"   # polling: 轮询; native: WatchService(inotify); auto: 网络文件系统轮询，其余native
+WORKER_MIN_THREADS="4"  # 上传线程数下限
+WORKER_MAX_THREADS="16" # 上传线程数上限，与下限不同时按吞吐自动调整
+LANE_THRESHOLDS="1048576"  # 按文件大小分排队通道的上界（字节，逗号分隔），小文件不排在大文件后面
+LANE_WEIGHTS="4,1"         # 各通道的出队权重，比上界多一个
+MAPPING_MAX_CONCURRENT="0" # 每个映射同时处理的文件数上限，0表示不限
+
+# 运行指标（JMX及本机HTTP端点，status.sh通过HTTP端点查询）
+METRICS_PORT="9310"     # 0表示不启动HTTP端点；status.sh从这一行读取端口
 
 # 检查必要文件
 if [ ! -f "$MAPPING_FILE" ]; then
@@ -35,7 +54,9 @@ fi
 mkdir -p "$LOG_DIR"
 
 # JVM参数
-JAVA_OPTS="-Xms256m -Xmx512m -XX:+HeapDumpOnOutOfMemoryError -XX:HeapDumpPath=$LOG_DIR"
+# 已处理记录常驻堆内，保留30天，每个文件每个目的地一条，约 81字节+文件名字节数 每条（文件名19字节时约100字节）；
+# 1g堆按记录最多占一半计，可容纳约500万条，超出时按比例调大-Xmx（可用 exec:exec@heap-check 验证）
+JAVA_OPTS="-Xms256m -Xmx1g -XX:+HeapDumpOnOutOfMemoryError -XX:HeapDumpPath=$LOG_DIR"
 
 # 系统属性参数
 SYSTEM_PROPS="\
@@ -44,9 +65,24 @@ SYSTEM_PROPS="\
     -Dsftp.username=$SFTP_USERNAME \
     -Dsftp.privateKeyPath=$SFTP_PRIVATE_KEY \
     -Dsftp.privateKeyPassphrase=$SFTP_KEY_PASSPHRASE \
+    -Dsftp.maxSessions=$SFTP_MAX_SESSIONS \
+    -Dsftp.channelsPerSession=$SFTP_CHANNELS_PER_SESSION \
+    -Dsftp.segmentThreshold=$SFTP_SEGMENT_THRESHOLD \
+    -Dsftp.segmentParallelism=$SFTP_SEGMENT_PARALLELISM \
+    -Dsftp.destinationFile=$SFTP_DESTINATION_FILE \
+    -Dsftp.bandwidthLimit=$SFTP_BANDWIDTH_LIMIT \
+    -Dsftp.bandwidthFile=$SFTP_BANDWIDTH_FILE \
     -Dmonitor.recordFile=$RECORD_FILE \
     -Dmonitor.mappingFile=$MAPPING_FILE \
-    -Dmonitor.pollingInterval=$POLLING_INTERVAL"
+    -Dmonitor.mappingReloadInterval=$MAPPING_RELOAD_INTERVAL \
+    -Dmonitor.pollingInterval=$POLLING_INTERVAL \
+    -Dmonitor.engine=$MONITOR_ENGINE \
+    -Dmonitor.workerMinThreads=$WORKER_MIN_THREADS \
+    -Dmonitor.workerMaxThreads=$WORKER_MAX_THREADS \
+    -Dmonitor.laneThresholds=$LANE_THRESHOLDS \
+    -Dmonitor.laneWeights=$LANE_WEIGHTS \
+    -Dmonitor.mappingMaxConcurrent=$MAPPING_MAX_CONCURRENT \
+    -Dmetrics.port=$METRICS_PORT"
 
 # 检查是否已经运行
 PID_FILE="application.pid"
@@ -5,6 +5,8 @@ SCRIPT_DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
 cd "$SCRIPT_DIR"
 
 PID_FILE="application.pid"
+# 指标端口只在start.sh中配置，这里从start.sh读取
+METRICS_PORT=$(sed -n 's/^METRICS_PORT="\([0-9]*\)".*/\1/p' start.sh)
 
 if [ ! -f "$PID_FILE" ]; then
     echo "Application is not running (PID file not found)"
@@ -17,6 +19,10 @@ if ps -p "$PID" > /dev/null; then
     echo "Application is running (PID: $PID)"
     echo "Memory usage:"
     ps -o pid,ppid,%cpu,%mem,rss,command -p "$PID"
+    if [ -n "$METRICS_PORT" ] && [ "$METRICS_PORT" != "0" ] && command -v curl > /dev/null; then
+        echo "Metrics:"
+        curl -s --max-time 5 "http://127.0.0.1:$METRICS_PORT/metrics" || echo "Metrics endpoint not available"
+    fi
     exit 0
 else
     echo "Application is not running (PID: $PID not found)"